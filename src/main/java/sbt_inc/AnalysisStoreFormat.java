@@ -0,0 +1,14 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+/** Serialization format of the analysis files, see {@link AnalysisStores}. */
+public enum AnalysisStoreFormat {
+  /** zinc's protobuf format, in a compressed zip */
+  binary,
+
+  /** zinc's protobuf format, in a zip without compression: larger, but faster to load and store */
+  uncompressed
+}
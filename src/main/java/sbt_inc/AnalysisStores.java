@@ -0,0 +1,124 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import sbt.internal.inc.FileAnalysisStore;
+import sbt.internal.inc.binary.BinaryAnalysisFormat;
+import sbt.internal.shaded.com.google.protobuf.CodedOutputStream;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.AnalysisStore;
+import xsbti.compile.analysis.ReadWriteMappers;
+import xsbti.compile.analysis.WriteMapper;
+
+/**
+ * Analysis stores writing an {@link AnalysisStoreFormat}. Both formats share the layout of zinc's
+ * binary analysis files, so they are read the same way and the format of a project can be changed
+ * without a clean build.
+ */
+public final class AnalysisStores {
+
+  // entries of zinc's binary analysis file, see FileAnalysisStore
+  private static final String ANALYSIS_ENTRY = "inc_compile.bin";
+  private static final String COMPANIONS_ENTRY = "api_companions.bin";
+
+  private AnalysisStores() {}
+
+  /** Returns a store writing the analysis file in the format. */
+  public static AnalysisStore make(File file, AnalysisStoreFormat format) {
+    return make(file, format, false);
+  }
+
+  /**
+   * Returns a store writing the analysis file in the format, and reading memory compact analyses if
+   * compact, see {@link CompactAnalyses}.
+   */
+  static AnalysisStore make(File file, AnalysisStoreFormat format, boolean compact) {
+    return new AnalysisStore() {
+      @Override
+      public Optional<AnalysisContents> get() {
+        return read(file, compact);
+      }
+
+      @Override
+      public AnalysisContents unsafeGet() {
+        return get().get();
+      }
+
+      @Override
+      public void set(AnalysisContents contents) {
+        write(file, format, contents);
+      }
+    };
+  }
+
+  /** Read an analysis file written in any format, or returns empty if it's missing or invalid. */
+  public static Optional<AnalysisContents> read(File file) {
+    return read(file, false);
+  }
+
+  /**
+   * Read an analysis file, as a memory compact analysis if compact, once its pending writes are
+   * done.
+   */
+  public static Optional<AnalysisContents> read(File file, boolean compact) {
+    WriteBehindAnalysisStore.flush(file);
+    if (!compact) {
+      return FileAnalysisStore.binary(file).get();
+    }
+    ReadWriteMappers mappers =
+        new ReadWriteMappers(CompactAnalyses.INTERNING_READ_MAPPER, WriteMapper.getEmptyMapper());
+    return FileAnalysisStore.binary(file, mappers).get().map(CompactAnalyses::compact);
+  }
+
+  static void write(File file, AnalysisStoreFormat format, AnalysisContents contents) {
+    switch (format) {
+      case binary:
+        FileAnalysisStore.binary(file).set(contents);
+        break;
+      case uncompressed:
+        writeUncompressed(file, contents);
+        break;
+      default:
+        throw new IllegalArgumentException("unsupported analysis store format " + format);
+    }
+  }
+
+  // same layout as zinc's binary format, so it is read back by FileAnalysisStore.binary
+  private static void writeUncompressed(File file, AnalysisContents contents) {
+    BinaryAnalysisFormat format = new BinaryAnalysisFormat(ReadWriteMappers.getEmptyMappers());
+    try {
+      file.getParentFile().mkdirs();
+      File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try (ZipOutputStream zos =
+          new ZipOutputStream(
+              new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath()), 64 * 1024))) {
+        zos.setLevel(Deflater.NO_COMPRESSION);
+        CodedOutputStream cos = CodedOutputStream.newInstance(zos);
+        zos.putNextEntry(new ZipEntry(ANALYSIS_ENTRY));
+        format.write(cos, contents.getAnalysis(), contents.getMiniSetup());
+        cos.flush();
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry(COMPANIONS_ENTRY));
+        format.writeAPIs(cos, contents.getAnalysis(), contents.getMiniSetup().storeApis());
+        cos.flush();
+        zos.closeEntry();
+      }
+      Files.move(
+          tmpFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("failed to write analysis " + file, e);
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import xsbti.compile.DefinesClass;
+
+/**
+ * Index of the names of the classes of a jar, or of the JDK, answering zinc's {@link DefinesClass}
+ * lookups without opening the jar. The index is a file of the sorted 64-bit hashes of the class
+ * names, named after the {@link JarFingerprints} of the jar so it is built once per jar content and
+ * shared by all the builds of the machine. It is memory-mapped and looked up by binary search,
+ * hashing the looked up name in place, so lookups don't allocate. A hash collision would only make
+ * zinc believe the jar defines a class it doesn't.
+ */
+final class ClassNameIndex implements DefinesClass {
+
+  private static final int MAGIC = 0x434e4931; // "CNI1"
+
+  private static final Map<File, ClassNameIndex> loaded = new ConcurrentHashMap<>();
+
+  private final LongBuffer hashes;
+
+  private ClassNameIndex(LongBuffer hashes) {
+    this.hashes = hashes;
+  }
+
+  /** Returns the index of the jar, stored in indexDir, building it if missing. */
+  static ClassNameIndex forJar(File indexDir, JarFingerprints fingerprints, Path jar)
+      throws IOException {
+    File indexFile = new File(indexDir, fingerprints.fingerprint(jar) + ".idx");
+    return load(indexFile, () -> jarClassNames(jar));
+  }
+
+  /**
+   * Returns the index of the classes of the modules of the JDK javaHome (9+), the one compiled
+   * against, or of the running JDK if null, stored in indexDir, building it if missing, or empty if
+   * the JDK has no modules.
+   */
+  static Optional<ClassNameIndex> forJdkModules(File indexDir, File javaHome) throws IOException {
+    File home =
+        (javaHome != null ? javaHome : new File(System.getProperty("java.home")))
+            .getCanonicalFile();
+    File modules = new File(home, "lib/modules");
+    if (!modules.isFile()) {
+      return Optional.empty();
+    }
+    // the image of the JDK, changed by an update in place
+    String key =
+        "jdk-"
+            + Integer.toHexString(home.getPath().hashCode())
+            + "-"
+            + Long.toHexString(modules.length())
+            + "-"
+            + Long.toHexString(modules.lastModified());
+    File indexFile = new File(indexDir, key + ".idx");
+    return Optional.of(load(indexFile, () -> jdkModulesClassNames(home)));
+  }
+
+  @Override
+  public boolean apply(String className) {
+    long hash = hash(className, 0, className.length());
+    int low = 0;
+    int high = hashes.limit() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long value = hashes.get(middle);
+      if (value < hash) {
+        low = middle + 1;
+      } else if (value > hash) {
+        high = middle - 1;
+      } else {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private interface ClassNames {
+    List<String> list() throws IOException;
+  }
+
+  private static ClassNameIndex load(File indexFile, ClassNames classNames) throws IOException {
+    try {
+      return loaded.computeIfAbsent(
+          indexFile,
+          f -> {
+            try {
+              if (!f.isFile()) {
+                write(f, classNames.list());
+              }
+              return map(f);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static ClassNameIndex map(File indexFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      int count;
+      if (buffer.limit() < 8
+          || buffer.getInt(0) != MAGIC
+          || (count = buffer.getInt(4)) != (buffer.limit() - 8) / 8) {
+        throw new IOException("invalid class name index " + indexFile);
+      }
+      // through Buffer, the covariant overrides of ByteBuffer and LongBuffer are JDK 9+
+      ((Buffer) buffer).position(8);
+      LongBuffer hashes = buffer.slice().asLongBuffer();
+      ((Buffer) hashes).limit(count);
+      return new ClassNameIndex(hashes);
+    }
+  }
+
+  private static void write(File indexFile, List<String> classNames) throws IOException {
+    long[] hashes = new long[classNames.size()];
+    for (int i = 0; i < hashes.length; i++) {
+      String entryName = classNames.get(i);
+      hashes[i] = hash(entryName, 0, entryName.length() - ".class".length());
+    }
+    Arrays.sort(hashes);
+    indexFile.getParentFile().mkdirs();
+    File tmpFile = File.createTempFile(indexFile.getName(), ".tmp", indexFile.getParentFile());
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+      out.writeInt(MAGIC);
+      out.writeInt(hashes.length);
+      for (long hash : hashes) {
+        out.writeLong(hash);
+      }
+    }
+    Files.move(
+        tmpFile.toPath(),
+        indexFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // paths of the class files, relative to the root of the classpath entry
+  private static List<String> jarClassNames(Path jar) throws IOException {
+    List<String> classNames = new ArrayList<>();
+    try (ZipFile zip = new ZipFile(jar.toFile())) {
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+        String name = e.nextElement().getName();
+        if (name.endsWith(".class")) {
+          classNames.add(name);
+        }
+      }
+    }
+    return classNames;
+  }
+
+  private static List<String> jdkModulesClassNames(File javaHome) throws IOException {
+    URI jrt = URI.create("jrt:/");
+    try (FileSystem fileSystem =
+        FileSystems.newFileSystem(jrt, Collections.singletonMap("java.home", javaHome.getPath()))) {
+      return jdkModulesClassNames(fileSystem);
+    } catch (ProviderNotFoundException e) {
+      // running on Java 8, without jrt file system: the one of the JDK, from its jrt-fs.jar
+      try (URLClassLoader jrtFs =
+              new URLClassLoader(new URL[] {new File(javaHome, "lib/jrt-fs.jar").toURI().toURL()});
+          FileSystem fileSystem = FileSystems.newFileSystem(jrt, Collections.emptyMap(), jrtFs)) {
+        return jdkModulesClassNames(fileSystem);
+      }
+    }
+  }
+
+  private static List<String> jdkModulesClassNames(FileSystem jrt) throws IOException {
+    List<String> classNames = new ArrayList<>();
+    try (DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"))) {
+      for (Path module : modules) {
+        try (Stream<Path> files = Files.walk(module)) {
+          files
+              .filter(file -> file.toString().endsWith(".class"))
+              .forEach(file -> classNames.add(module.relativize(file).toString()));
+        }
+      }
+    }
+    return classNames;
+  }
+
+  /**
+   * FNV-1a hash of the class name in name[start, end), reading '/' as '.' so that the path of a
+   * class file and the binary name of the class have the same hash.
+   */
+  private static long hash(String name, int start, int end) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = start; i < end; i++) {
+      char c = name.charAt(i);
+      hash ^= c == '/' ? '.' : c;
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.function.UnaryOperator;
+import sbt.internal.inc.Analysis;
+import sbt.internal.inc.ExternalDependencies;
+import sbt.internal.inc.InternalDependencies;
+import sbt.internal.inc.Relations;
+import sbt.internal.inc.Relations$;
+import sbt.internal.inc.UsedName;
+import sbt.internal.inc.UsedNames;
+import sbt.internal.inc.UsedNames$;
+import sbt.internal.util.Relation;
+import sbt.internal.util.Relation$;
+import scala.collection.immutable.Set;
+import scala.collection.immutable.Set$;
+import scala.jdk.javaapi.CollectionConverters;
+import xsbti.VirtualFileRef;
+import xsbti.api.DependencyContext;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.AnalysisStore;
+import xsbti.compile.MiniSetup;
+import xsbti.compile.analysis.ReadMapper;
+import xsbti.compile.analysis.Stamp;
+
+/**
+ * Memory compact analyses, for very large modules. zinc reads every occurrence of a class name or a
+ * path of an analysis file as a new object, so the same names are held many times by the relations
+ * of an analysis, and again by the analyses of the other modules. Compact analyses share them: the
+ * paths are interned while reading and the relations are rebuilt with interned names, in a JVM wide
+ * table shared by all the analyses.
+ *
+ * <p>The used names, that zinc keeps as read, are shared the same way. The APIs are kept as read.
+ */
+final class CompactAnalyses {
+
+  private static final Interner<VirtualFileRef> files = new Interner<>();
+  private static final Interner<UsedName> usedNames = new Interner<>();
+
+  private CompactAnalyses() {}
+
+  /** Mapper interning the paths and options while an analysis file is read. */
+  static final ReadMapper INTERNING_READ_MAPPER =
+      new ReadMapper() {
+        @Override
+        public VirtualFileRef mapSourceFile(VirtualFileRef sourceFile) {
+          return files.intern(sourceFile);
+        }
+
+        @Override
+        public VirtualFileRef mapBinaryFile(VirtualFileRef binaryFile) {
+          return files.intern(binaryFile);
+        }
+
+        @Override
+        public VirtualFileRef mapProductFile(VirtualFileRef productFile) {
+          return files.intern(productFile);
+        }
+
+        @Override
+        public Path mapOutputDir(Path outputDir) {
+          return outputDir;
+        }
+
+        @Override
+        public Path mapSourceDir(Path sourceDir) {
+          return sourceDir;
+        }
+
+        @Override
+        public Path mapClasspathEntry(Path classpathEntry) {
+          return classpathEntry;
+        }
+
+        @Override
+        public String mapJavacOption(String javacOption) {
+          return javacOption.intern();
+        }
+
+        @Override
+        public String mapScalacOption(String scalacOption) {
+          return scalacOption.intern();
+        }
+
+        @Override
+        public Stamp mapBinaryStamp(VirtualFileRef file, Stamp binaryStamp) {
+          return binaryStamp;
+        }
+
+        @Override
+        public Stamp mapSourceStamp(VirtualFileRef file, Stamp sourceStamp) {
+          return sourceStamp;
+        }
+
+        @Override
+        public Stamp mapProductStamp(VirtualFileRef file, Stamp productStamp) {
+          return productStamp;
+        }
+
+        @Override
+        public MiniSetup mapMiniSetup(MiniSetup miniSetup) {
+          return miniSetup;
+        }
+      };
+
+  /** Returns the contents with the relations of the analysis rebuilt with interned names. */
+  static AnalysisContents compact(AnalysisContents contents) {
+    if (!(contents.getAnalysis() instanceof Analysis)) {
+      return contents;
+    }
+    Analysis analysis = (Analysis) contents.getAnalysis();
+    Relations relations = analysis.relations();
+    UnaryOperator<VirtualFileRef> file = files::intern;
+    UnaryOperator<String> name = String::intern;
+    Relations compacted =
+        Relations$.MODULE$.make(
+            intern(relations.srcProd(), file, file),
+            intern(relations.libraryDep(), file, file),
+            intern(relations.libraryClassName(), file, name),
+            new InternalDependencies(intern(relations.internalDependencies().dependencies())),
+            new ExternalDependencies(intern(relations.externalDependencies().dependencies())),
+            intern(relations.classes(), file, name),
+            intern(relations.names()),
+            intern(relations.productClassName(), name, name));
+    return AnalysisContents.create(
+        analysis.copy(
+            analysis.stamps(),
+            analysis.apis(),
+            compacted,
+            analysis.infos(),
+            analysis.compilations()),
+        contents.getMiniSetup());
+  }
+
+  /** Returns a store caching compact analyses, see {@link AnalysisStore#getCachedStore}. */
+  static AnalysisStore cachedStore(AnalysisStore store) {
+    AnalysisStore cached = AnalysisStore.getCachedStore(store);
+    return new AnalysisStore() {
+      @Override
+      public Optional<AnalysisContents> get() {
+        return cached.get();
+      }
+
+      @Override
+      public AnalysisContents unsafeGet() {
+        return cached.unsafeGet();
+      }
+
+      @Override
+      public void set(AnalysisContents contents) {
+        cached.set(compact(contents));
+      }
+    };
+  }
+
+  private static scala.collection.immutable.Map<DependencyContext, Relation<String, String>> intern(
+      scala.collection.immutable.Map<DependencyContext, Relation<String, String>> dependencies) {
+    scala.collection.immutable.Map<DependencyContext, Relation<String, String>> interned =
+        scala.collection.immutable.Map$.MODULE$.empty();
+    for (Map.Entry<DependencyContext, Relation<String, String>> entry :
+        CollectionConverters.asJava(dependencies).entrySet()) {
+      interned =
+          interned.updated(
+              entry.getKey(), intern(entry.getValue(), String::intern, String::intern));
+    }
+    return interned;
+  }
+
+  // zinc reads the used names lazily, as they were serialized, this shares them between classes
+  private static UsedNames intern(UsedNames names) {
+    scala.collection.immutable.Map<String, scala.collection.Set<UsedName>> interned =
+        scala.collection.immutable.Map$.MODULE$.empty();
+    for (Map.Entry<String, scala.collection.Set<UsedName>> entry :
+        CollectionConverters.asJava(names.toMultiMap()).entrySet()) {
+      Set<UsedName> values = Set$.MODULE$.empty();
+      for (UsedName usedName : CollectionConverters.asJava(entry.getValue())) {
+        values =
+            values.incl(
+                usedNames.intern(UsedName.make(usedName.name().intern(), usedName.scopes())));
+      }
+      interned = interned.updated(entry.getKey().intern(), values);
+    }
+    return UsedNames$.MODULE$.fromMultiMap(interned);
+  }
+
+  // rebuilds the relation from its forward map, the reverse map shares the interned objects
+  private static <A, B> Relation<A, B> intern(
+      Relation<A, B> relation, UnaryOperator<A> internA, UnaryOperator<B> internB) {
+    scala.collection.immutable.Map<A, Set<B>> forward =
+        scala.collection.immutable.Map$.MODULE$.empty();
+    for (Map.Entry<A, Set<B>> entry :
+        CollectionConverters.asJava(relation.forwardMap()).entrySet()) {
+      Set<B> values = Set$.MODULE$.empty();
+      for (B value : CollectionConverters.asJava(entry.getValue())) {
+        values = values.incl(internB.apply(value));
+      }
+      forward = forward.updated(internA.apply(entry.getKey()), values);
+    }
+    return Relation$.MODULE$.reconstruct(forward);
+  }
+
+  /** Table of canonical instances, released when no longer used elsewhere. */
+  private static final class Interner<T> {
+    private final WeakHashMap<T, WeakReference<T>> entries = new WeakHashMap<>();
+
+    synchronized T intern(T value) {
+      WeakReference<T> reference = entries.get(value);
+      T interned = reference == null ? null : reference.get();
+      if (interned == null) {
+        entries.put(value, new WeakReference<>(value));
+        return value;
+      }
+      return interned;
+    }
+  }
+}
@@ -9,20 +9,24 @@ import static scala.jdk.CollectionConverters.IterableHasAsScala;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.jar.Manifest;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.logging.Log;
 import sbt.internal.inc.RawCompiler;
 import sbt.internal.inc.ScalaInstance;
-import sbt.io.AllPassFilter$;
-import sbt.io.IO;
-import scala.Tuple2;
 import scala_maven.MavenArtifactResolver;
 import scala_maven.VersionNumber;
 import util.FileUtils;
@@ -37,11 +41,56 @@ public final class CompilerBridgeFactory {
   private static final File DEFAULT_SECONDARY_CACHE_DIR =
       Paths.get(System.getProperty("user.home"), ".sbt", "1.0", "zinc", "org.scala-sbt").toFile();
 
+  // in-process locks of the bridges being installed, as file locks are held by the whole JVM
+  private static final Map<File, Object> installLocks = new ConcurrentHashMap<>();
+
+  // published bridges, by artifactId, zinc version and Scala version
+  private static final Map<List<String>, Optional<File>> publishedBridgeJars =
+      new ConcurrentHashMap<>();
+
+  // zinc version and timestamp naming the bridges, from compiler-interface
+  private static Properties zincProperties;
+
   private CompilerBridgeFactory() {}
 
+  /**
+   * Returns the compiler bridge of the Scala version, compiling and installing it in the secondary
+   * cache if needed, eg to prepare the cache of a CI image. The compiler is only loaded to compile
+   * the bridge, and its classloaders are closed afterwards.
+   */
+  public static File installCompiledBridgeJar(
+      VersionNumber scalaVersion,
+      Collection<File> compilerAndDependencies,
+      Collection<File> libraryAndDependencies,
+      File secondaryCacheDir,
+      MavenArtifactResolver resolver,
+      Log mavenLogger)
+      throws Exception {
+    List<ScalaInstance> loaded = new ArrayList<>();
+    try {
+      return getCompiledBridgeJar(
+          scalaVersion,
+          () -> {
+            loaded.add(
+                ScalaInstances.makeScalaInstance(
+                    scalaVersion.toString(), compilerAndDependencies, libraryAndDependencies));
+            return loaded.get(0);
+          },
+          secondaryCacheDir,
+          resolver,
+          mavenLogger);
+    } finally {
+      loaded.forEach(ScalaInstances::close);
+    }
+  }
+
+  /**
+   * Returns the compiler bridge of the Scala version, getting the ScalaInstance from scalaInstance
+   * only if the bridge must be compiled.
+   */
   static File getCompiledBridgeJar(
       VersionNumber scalaVersion,
-      ScalaInstance scalaInstance,
+      Supplier<ScalaInstance> scalaInstance,
       File secondaryCacheDir,
       MavenArtifactResolver resolver,
       Log mavenLogger)
@@ -50,9 +99,7 @@ public final class CompilerBridgeFactory {
     // org.scala-sbt-compiler-bridge_2.12-1.2.4-bin_2.12.10__52.0-1.2.4_20181015T090407.jar
     String bridgeArtifactId = compilerBridgeArtifactId(scalaVersion.toString());
 
-    if (secondaryCacheDir == null) {
-      secondaryCacheDir = DEFAULT_SECONDARY_CACHE_DIR;
-    }
+    secondaryCacheDir = secondaryCacheDir(secondaryCacheDir);
     secondaryCacheDir.mkdirs();
 
     return scalaVersion.major == 3
@@ -66,6 +113,11 @@ public final class CompilerBridgeFactory {
             mavenLogger);
   }
 
+  /** Returns the configured secondary cache directory, or sbt's default one if null. */
+  static File secondaryCacheDir(File secondaryCacheDir) {
+    return secondaryCacheDir != null ? secondaryCacheDir : DEFAULT_SECONDARY_CACHE_DIR;
+  }
+
   private static String compilerBridgeArtifactId(String scalaVersion) {
     if (scalaVersion.startsWith("2.10.")) {
       return "compiler-bridge_2.10";
@@ -88,22 +140,14 @@ public final class CompilerBridgeFactory {
   }
 
   private static File getScala2CompilerBridgeJar(
-      ScalaInstance scalaInstance,
+      Supplier<ScalaInstance> scalaInstance,
       VersionNumber scalaVersion,
       String bridgeArtifactId,
       MavenArtifactResolver resolver,
       File secondaryCacheDir,
       Log mavenLogger)
       throws IOException {
-    // this file is localed in compiler-interface
-    Properties properties = new Properties();
-    try (InputStream is =
-        CompilerBridgeFactory.class
-            .getClassLoader()
-            .getResourceAsStream("incrementalcompiler.version.properties")) {
-      properties.load(is);
-    }
-
+    Properties properties = zincProperties();
     String zincVersion = properties.getProperty("version");
     String timestamp = properties.getProperty("timestamp");
 
@@ -125,111 +169,195 @@ public final class CompilerBridgeFactory {
 
     File cachedCompiledBridgeJar = new File(secondaryCacheDir, cacheFileName);
 
+    if (!cachedCompiledBridgeJar.exists()) {
+      File publishedBridgeJar =
+          getPublishedBridgeJar(scalaVersion, bridgeArtifactId, zincVersion, resolver, mavenLogger);
+      if (publishedBridgeJar != null) {
+        mavenLogger.info("Compiler bridge file: " + publishedBridgeJar);
+        return publishedBridgeJar;
+      }
+    }
+
     if (mavenLogger.isInfoEnabled()) {
       mavenLogger.info("Compiler bridge file: " + cachedCompiledBridgeJar);
     }
 
     if (!cachedCompiledBridgeJar.exists()) {
-      mavenLogger.info("Compiler bridge file is not installed yet");
-      // compile and install
-      RawCompiler rawCompiler =
-          new RawCompiler(
-              scalaInstance, ClasspathOptionsUtil.auto(), new MavenLoggerSbtAdapter(mavenLogger));
-
-      File bridgeSources =
-          resolver.getJar(SBT_GROUP_ID, bridgeArtifactId, zincVersion, "sources").getFile();
-
-      Set<Path> bridgeSourcesDependencies =
-          resolver.getJarAndDependencies(SBT_GROUP_ID, bridgeArtifactId, zincVersion, "sources")
-              .stream()
-              .filter(
-                  artifact ->
-                      artifact.getScope() != null && !artifact.getScope().equals("provided"))
-              .map(Artifact::getFile)
-              .map(File::toPath)
-              .collect(Collectors.toSet());
-
-      bridgeSourcesDependencies.addAll(
-          Arrays.stream(scalaInstance.allJars())
-              .sequential()
-              .map(File::toPath)
-              .collect(Collectors.toList()));
-
-      Path sourcesDir = Files.createTempDirectory("scala-maven-plugin-compiler-bridge-sources");
-      Path classesDir = Files.createTempDirectory("scala-maven-plugin-compiler-bridge-classes");
-
-      IO.unzip(bridgeSources, sourcesDir.toFile(), AllPassFilter$.MODULE$, true);
-
-      List<Path> bridgeSourcesScalaFiles =
-          FileUtils.listDirectoryContent(
-              sourcesDir,
-              file ->
-                  Files.isRegularFile(file) && file.getFileName().toString().endsWith(".scala"));
-      List<Path> bridgeSourcesNonScalaFiles =
-          FileUtils.listDirectoryContent(
-              sourcesDir,
-              file ->
-                  Files.isRegularFile(file)
-                      && !file.getFileName().toString().endsWith(".scala")
-                      && !file.getFileName().toString().equals("MANIFEST.MF"));
-
-      try {
-        rawCompiler.apply(
-            IterableHasAsScala(bridgeSourcesScalaFiles).asScala().toSeq(), // sources:Seq[File]
-            IterableHasAsScala(bridgeSourcesDependencies).asScala().toSeq(), // classpath:Seq[File],
-            classesDir, // outputDirectory:Path,
-            IterableHasAsScala(Collections.<String>emptyList())
-                .asScala()
-                .toSeq() // options:Seq[String]
-            );
-
-        Manifest manifest = new Manifest();
-        Path sourcesManifestFile = sourcesDir.resolve("META-INF").resolve("MANIFEST.MF");
-        try (InputStream is = Files.newInputStream(sourcesManifestFile)) {
-          manifest.read(is);
+      // modules built in parallel, and concurrent builds sharing the cache, install it once
+      synchronized (installLocks.computeIfAbsent(cachedCompiledBridgeJar, k -> new Object())) {
+        try (FileChannel channel =
+                FileChannel.open(
+                    new File(secondaryCacheDir, cacheFileName + ".lock").toPath(),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock ignored = channel.lock()) {
+          if (!cachedCompiledBridgeJar.exists()) {
+            installScala2CompilerBridgeJar(
+                scalaInstance.get(),
+                bridgeArtifactId,
+                zincVersion,
+                resolver,
+                cachedCompiledBridgeJar,
+                mavenLogger);
+          }
         }
-
-        List<Tuple2<File, String>> scalaCompiledClasses =
-            computeZipEntries(FileUtils.listDirectoryContent(classesDir, file -> true), classesDir);
-        List<Tuple2<File, String>> resources =
-            computeZipEntries(bridgeSourcesNonScalaFiles, sourcesDir);
-        List<Tuple2<File, String>> allZipEntries = new ArrayList<>();
-        allZipEntries.addAll(scalaCompiledClasses);
-        allZipEntries.addAll(resources);
-
-        IO.jar(
-            IterableHasAsScala(
-                    allZipEntries.stream()
-                        .map(x -> scala.Tuple2.apply(x._1, x._2))
-                        .collect(Collectors.toList()))
-                .asScala(),
-            cachedCompiledBridgeJar,
-            manifest);
-
-        mavenLogger.info("Compiler bridge installed");
-
-      } finally {
-        FileUtils.deleteDirectory(sourcesDir);
-        FileUtils.deleteDirectory(classesDir);
       }
     }
 
     return cachedCompiledBridgeJar;
   }
 
-  private static List<Tuple2<File, String>> computeZipEntries(List<Path> paths, Path rootDir) {
-    int rootDirLength = rootDir.toString().length();
-    Stream<Tuple2<File, String>> stream =
-        paths.stream()
-            .map(
-                path -> {
-                  String zipPath =
-                      path.toString().substring(rootDirLength + 1).replace(File.separator, "/");
-                  if (Files.isDirectory(path)) {
-                    zipPath = zipPath + "/";
-                  }
-                  return new Tuple2<>(path.toFile(), zipPath);
-                });
-    return stream.collect(Collectors.toList());
+  /**
+   * Returns the binary bridge published by zinc if it was built against this very Scala version,
+   * else null, as the compiler internals it uses may change between patch versions.
+   */
+  private static File getPublishedBridgeJar(
+      VersionNumber scalaVersion,
+      String bridgeArtifactId,
+      String zincVersion,
+      MavenArtifactResolver resolver,
+      Log mavenLogger) {
+    return publishedBridgeJars
+        .computeIfAbsent(
+            Arrays.asList(bridgeArtifactId, zincVersion, scalaVersion.toString()),
+            k -> {
+              try {
+                Set<Artifact> artifacts =
+                    resolver.getJarAndDependencies(
+                        SBT_GROUP_ID, bridgeArtifactId, zincVersion, null);
+                boolean builtAgainstScalaVersion =
+                    artifacts.stream()
+                        .anyMatch(
+                            artifact ->
+                                artifact.getArtifactId().equals("scala-compiler")
+                                    && artifact.getVersion().equals(scalaVersion.toString()));
+                if (!builtAgainstScalaVersion) {
+                  return Optional.empty();
+                }
+                return artifacts.stream()
+                    .filter(artifact -> artifact.getArtifactId().equals(bridgeArtifactId))
+                    .map(Artifact::getFile)
+                    .findFirst();
+              } catch (RuntimeException e) {
+                mavenLogger.debug("No published compiler bridge " + bridgeArtifactId + ": " + e);
+                return Optional.empty();
+              }
+            })
+        .orElse(null);
+  }
+
+  private static synchronized Properties zincProperties() throws IOException {
+    if (zincProperties == null) {
+      // this file is localed in compiler-interface
+      Properties properties = new Properties();
+      try (InputStream is =
+          CompilerBridgeFactory.class
+              .getClassLoader()
+              .getResourceAsStream("incrementalcompiler.version.properties")) {
+        properties.load(is);
+      }
+      zincProperties = properties;
+    }
+    return zincProperties;
+  }
+
+  /**
+   * Compiles the bridge and installs it with an atomic rename, so the other builds never see a
+   * partially written jar. The sources are read from their jar, and the classes are written by
+   * scalac straight to the bridge jar.
+   */
+  private static void installScala2CompilerBridgeJar(
+      ScalaInstance scalaInstance,
+      String bridgeArtifactId,
+      String zincVersion,
+      MavenArtifactResolver resolver,
+      File cachedCompiledBridgeJar,
+      Log mavenLogger)
+      throws IOException {
+    mavenLogger.info("Compiler bridge file is not installed yet");
+    // compile and install
+    RawCompiler rawCompiler =
+        new RawCompiler(
+            scalaInstance, ClasspathOptionsUtil.auto(), new MavenLoggerSbtAdapter(mavenLogger));
+
+    File bridgeSources =
+        resolver.getJar(SBT_GROUP_ID, bridgeArtifactId, zincVersion, "sources").getFile();
+
+    Set<Path> bridgeSourcesDependencies =
+        resolver.getJarAndDependencies(SBT_GROUP_ID, bridgeArtifactId, zincVersion, "sources")
+            .stream()
+            .filter(
+                artifact -> artifact.getScope() != null && !artifact.getScope().equals("provided"))
+            .map(Artifact::getFile)
+            .map(File::toPath)
+            .collect(Collectors.toSet());
+
+    bridgeSourcesDependencies.addAll(
+        Arrays.stream(scalaInstance.allJars())
+            .sequential()
+            .map(File::toPath)
+            .collect(Collectors.toList()));
+
+    Path sourcesDir = Files.createTempDirectory("scala-maven-plugin-compiler-bridge-sources");
+    // scalac writes a jar when the output "directory" ends with .jar
+    Path tmpJar =
+        Files.createTempFile(
+            cachedCompiledBridgeJar.getParentFile().toPath(),
+            cachedCompiledBridgeJar.getName(),
+            ".jar");
+
+    try (FileSystem sourcesJar =
+        FileSystems.newFileSystem(bridgeSources.toPath(), (ClassLoader) null)) {
+      Path root = sourcesJar.getPath("/");
+      List<Path> entries;
+      try (Stream<Path> walk = Files.walk(root)) {
+        entries = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+      }
+
+      // scalac only reads sources from files, the other entries (and the manifest) are resources
+      List<Path> bridgeSourcesScalaFiles = new ArrayList<>();
+      List<Path> resources = new ArrayList<>();
+      for (Path entry : entries) {
+        if (entry.getFileName().toString().endsWith(".scala")) {
+          Path file = sourcesDir.resolve(root.relativize(entry).toString());
+          Files.createDirectories(file.getParent());
+          Files.copy(entry, file);
+          bridgeSourcesScalaFiles.add(file);
+        } else {
+          resources.add(entry);
+        }
+      }
+
+      rawCompiler.apply(
+          IterableHasAsScala(bridgeSourcesScalaFiles).asScala().toSeq(), // sources:Seq[File]
+          IterableHasAsScala(bridgeSourcesDependencies).asScala().toSeq(), // classpath:Seq[File],
+          tmpJar, // outputDirectory:Path,
+          IterableHasAsScala(Collections.<String>emptyList())
+              .asScala()
+              .toSeq() // options:Seq[String]
+          );
+
+      try (FileSystem jar = FileSystems.newFileSystem(tmpJar, (ClassLoader) null)) {
+        for (Path resource : resources) {
+          Path target = jar.getPath(root.relativize(resource).toString());
+          if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+          }
+          Files.copy(resource, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+
+      Files.move(
+          tmpJar,
+          cachedCompiledBridgeJar.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+
+      mavenLogger.info("Compiler bridge installed");
+
+    } finally {
+      Files.deleteIfExists(tmpJar);
+      FileUtils.deleteDirectory(sourcesDir);
+    }
   }
 }
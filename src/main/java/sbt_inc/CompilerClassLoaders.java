@@ -0,0 +1,173 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.function.Supplier;
+import sbt.internal.inc.ScalaInstance;
+import sbt.internal.inc.classpath.AbstractClassLoaderCache;
+import sbt.internal.inc.classpath.ClassLoaderCache;
+import scala.Function0;
+import scala.jdk.javaapi.CollectionConverters;
+import util.LruCache;
+
+/**
+ * Pool of the classloaders of the compiler bridge, on top of the ones of the Scala compiler, used
+ * by the AnalyzingCompiler of each compilation. Without it, zinc creates a classloader, and loads
+ * the bridge classes again, for every compilation.
+ *
+ * <p>The pool is shared by the compilers of the same ScalaInstance and bridge, so by the modules,
+ * scopes and cc iterations of the build. At most maxSize classloaders are kept, the least recently
+ * used being evicted, and the pool is emptied when the metaspace is almost full, to let the evicted
+ * classes be unloaded. The evicted classloaders are closed once no compilation is running, as
+ * running compilations may still load classes from them.
+ */
+final class CompilerClassLoaders {
+
+  // shared by the modules and scopes of the Maven session, as long as the plugin realm lives
+  private static final LruCache<List<Object>, ClassLoader> cachedClassLoaders =
+      new LruCache<>(0, (k, v) -> 1, CompilerClassLoaders::evicted);
+
+  // parent of the classloaders created from files only, with the bootstrap classes
+  private static final ClassLoader COMMON_PARENT = new URLClassLoader(new URL[0], null);
+
+  private static final List<ClassLoader> evictedClassLoaders = new ArrayList<>();
+  private static int runningCompilations;
+
+  // share of the maximum size of a metaspace pool above which the pool is emptied
+  private static final double METASPACE_THRESHOLD = 0.8;
+
+  private CompilerClassLoaders() {}
+
+  /**
+   * Returns the classloader cache of the compilers of the Scala instance, or empty when maxSize is
+   * 0 to disable the pool.
+   */
+  static Optional<ClassLoaderCache> forScalaInstance(ScalaInstance scalaInstance, int maxSize) {
+    if (maxSize <= 0) {
+      return Optional.empty();
+    }
+    cachedClassLoaders.setMaxWeight(maxSize);
+    return Optional.of(new ClassLoaderCache(new Cache(scalaInstance)));
+  }
+
+  /** Describes the pool size and its hit/miss counts. */
+  static String cacheStatistics() {
+    return cachedClassLoaders.toString();
+  }
+
+  /** Runs a compilation, closing the evicted classloaders once no compilation is running. */
+  static <T> T whileCompiling(Supplier<T> compilation) {
+    synchronized (evictedClassLoaders) {
+      runningCompilations++;
+    }
+    try {
+      return compilation.get();
+    } finally {
+      List<ClassLoader> toClose = Collections.emptyList();
+      synchronized (evictedClassLoaders) {
+        runningCompilations--;
+        if (runningCompilations == 0) {
+          toClose = new ArrayList<>(evictedClassLoaders);
+          evictedClassLoaders.clear();
+        }
+      }
+      toClose.forEach(CompilerClassLoaders::close);
+    }
+  }
+
+  private static void evicted(ClassLoader classLoader) {
+    synchronized (evictedClassLoaders) {
+      if (runningCompilations > 0) {
+        evictedClassLoaders.add(classLoader);
+        return;
+      }
+    }
+    close(classLoader);
+  }
+
+  private static void close(ClassLoader classLoader) {
+    if (classLoader instanceof URLClassLoader) {
+      try {
+        ((URLClassLoader) classLoader).close();
+      } catch (IOException e) {
+        // the jars stay open until the classloader is collected
+      }
+    }
+  }
+
+  private static boolean isMetaspaceAlmostFull() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getName().equals("Metaspace") || pool.getName().equals("Compressed Class Space")) {
+        MemoryUsage usage = pool.getUsage();
+        // the metaspace is unbounded by default, without MaxMetaspaceSize
+        if (usage != null
+            && usage.getMax() > 0
+            && usage.getUsed() > usage.getMax() * METASPACE_THRESHOLD) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static final class Cache implements AbstractClassLoaderCache {
+    // the classloaders are keyed by the scala instance their parent may be from
+    private final ScalaInstance scalaInstance;
+
+    Cache(ScalaInstance scalaInstance) {
+      this.scalaInstance = scalaInstance;
+    }
+
+    @Override
+    public ClassLoader commonParent() {
+      return COMMON_PARENT;
+    }
+
+    @Override
+    public ClassLoader apply(scala.collection.immutable.List<File> files) {
+      return cachedCustomClassloader(
+          files,
+          () -> {
+            List<File> jars = CollectionConverters.asJava(files);
+            URL[] urls = new URL[jars.size()];
+            for (int i = 0; i < urls.length; i++) {
+              try {
+                urls[i] = jars.get(i).toURI().toURL();
+              } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e);
+              }
+            }
+            return new URLClassLoader(urls, COMMON_PARENT);
+          });
+    }
+
+    @Override
+    public ClassLoader cachedCustomClassloader(
+        scala.collection.immutable.List<File> files, Function0<ClassLoader> mkLoader) {
+      List<Object> key = new ArrayList<>();
+      key.add(scalaInstance);
+      for (File file : CollectionConverters.asJava(files)) {
+        key.add(Arrays.asList(file, file.length(), file.lastModified()));
+      }
+      if (isMetaspaceAlmostFull()) {
+        cachedClassLoaders.clear();
+      }
+      return cachedClassLoaders.get(key, k -> mkLoader.apply());
+    }
+
+    // the classloaders may still be used by other compilers, they are released on eviction
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,213 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import xsbti.Logger;
+import xsbti.Position;
+import xsbti.Problem;
+import xsbti.Reporter;
+import xsbti.Severity;
+
+/**
+ * Reporter of the diagnostics of one compilation, streaming them as JSON lines (one object per
+ * diagnostic) to a file through a buffer, instead of formatting and logging each of them. Only the
+ * first maxErrors errors and maxLoggedWarnings warnings (and infos) are logged, then a summary
+ * pointing to the file.
+ */
+final class DiagnosticsReporter implements Reporter {
+
+  private final File diagnosticsFile;
+  private final int maxErrors;
+  private final int maxLoggedWarnings;
+  private final Logger sbtLogger;
+
+  private Writer writer;
+  // problems written and logged during the compilation, once even if reported by several runs
+  private final Set<String> reported = new HashSet<>();
+  // problems of the current scalac or javac run, see reset
+  private final Set<String> runReported = new HashSet<>();
+  private final List<Problem> problems = new ArrayList<>();
+  private final EnumMap<Severity, Integer> counts = new EnumMap<>(Severity.class);
+  private final EnumMap<Severity, Integer> logged = new EnumMap<>(Severity.class);
+
+  DiagnosticsReporter(
+      File diagnosticsFile, int maxErrors, int maxLoggedWarnings, Logger sbtLogger) {
+    this.diagnosticsFile = diagnosticsFile;
+    this.maxErrors = maxErrors;
+    this.maxLoggedWarnings = maxLoggedWarnings;
+    this.sbtLogger = sbtLogger;
+  }
+
+  /** Diagnostics of the compilation whose analysis is cacheFile. */
+  static File diagnosticsFile(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-diagnostics.jsonl");
+  }
+
+  /** Called by zinc before each run of scalac, the file keeps the problems of all the runs. */
+  @Override
+  public synchronized void reset() {
+    runReported.clear();
+    problems.clear();
+  }
+
+  @Override
+  public synchronized boolean hasErrors() {
+    return problems.stream().anyMatch(problem -> problem.severity() == Severity.Error);
+  }
+
+  @Override
+  public synchronized boolean hasWarnings() {
+    return problems.stream().anyMatch(problem -> problem.severity() == Severity.Warn);
+  }
+
+  /** Called by zinc after each run of scalac, the summary is logged by {@link #close()}. */
+  @Override
+  public synchronized void printSummary() {
+    flush();
+  }
+
+  @Override
+  public synchronized Problem[] problems() {
+    return problems.toArray(new Problem[0]);
+  }
+
+  @Override
+  public synchronized void log(Problem problem) {
+    Position position = problem.position();
+    Severity severity = problem.severity();
+    // scalac reports some problems twice, e.g. for the symbol and the tree of a definition
+    String key =
+        severity
+            + ":"
+            + position.sourcePath().orElse("")
+            + ":"
+            + position.offset().map(String::valueOf).orElse("")
+            + ":"
+            + problem.message();
+    if (runReported.add(key)) {
+      problems.add(problem);
+    }
+    if (!reported.add(key)) {
+      return;
+    }
+    counts.merge(severity, 1, Integer::sum);
+    write(problem);
+    int limit = severity == Severity.Error ? maxErrors : maxLoggedWarnings;
+    if (logged.getOrDefault(severity, 0) < limit) {
+      logged.merge(severity, 1, Integer::sum);
+      String message = format(problem);
+      switch (severity) {
+        case Error:
+          sbtLogger.error(() -> message);
+          break;
+        case Warn:
+          sbtLogger.warn(() -> message);
+          break;
+        default:
+          sbtLogger.info(() -> message);
+      }
+    }
+  }
+
+  @Override
+  public void comment(Position position, String message) {}
+
+  /**
+   * Ends the compilation: closes the diagnostics file (or deletes the one of the previous
+   * compilation when there was no problem) and logs the summary.
+   */
+  synchronized void close() {
+    if (writer == null) {
+      diagnosticsFile.delete();
+      return;
+    }
+    try {
+      writer.close();
+    } catch (IOException e) {
+      sbtLogger.warn(() -> "failed to write the diagnostics " + diagnosticsFile + ": " + e);
+    }
+    writer = null;
+    int errors = counts.getOrDefault(Severity.Error, 0);
+    int warnings = counts.getOrDefault(Severity.Warn, 0);
+    int notLogged =
+        counts.values().stream().mapToInt(Integer::intValue).sum()
+            - logged.values().stream().mapToInt(Integer::intValue).sum();
+    StringBuilder summary = new StringBuilder();
+    summary.append(plural(warnings, "warning")).append(", ").append(plural(errors, "error"));
+    if (notLogged > 0) {
+      summary.append(" (").append(notLogged).append(" not logged)");
+    }
+    summary.append(", see ").append(diagnosticsFile);
+    if (errors > 0) {
+      sbtLogger.error(summary::toString);
+    } else if (warnings > 0) {
+      sbtLogger.warn(summary::toString);
+    } else {
+      sbtLogger.info(summary::toString);
+    }
+  }
+
+  private static String plural(int count, String noun) {
+    return count + " " + noun + (count == 1 ? "" : "s");
+  }
+
+  private void write(Problem problem) {
+    Position position = problem.position();
+    StringBuilder json = new StringBuilder(256);
+    json.append("{\"severity\":\"").append(problem.severity()).append('"');
+    if (!problem.category().isEmpty()) {
+      json.append(",\"category\":").append(Json.quote(problem.category()));
+    }
+    position.sourcePath().ifPresent(path -> json.append(",\"path\":").append(Json.quote(path)));
+    position.line().ifPresent(line -> json.append(",\"line\":").append(line));
+    position.pointer().ifPresent(pointer -> json.append(",\"column\":").append(pointer + 1));
+    position.offset().ifPresent(offset -> json.append(",\"offset\":").append(offset));
+    json.append(",\"message\":").append(Json.quote(problem.message())).append("}\n");
+    try {
+      if (writer == null) {
+        diagnosticsFile.getParentFile().mkdirs();
+        writer =
+            new BufferedWriter(
+                new OutputStreamWriter(
+                    Files.newOutputStream(diagnosticsFile.toPath()), StandardCharsets.UTF_8),
+                64 * 1024);
+      }
+      writer.append(json);
+    } catch (IOException e) {
+      sbtLogger.debug(() -> "failed to write the diagnostics " + diagnosticsFile + ": " + e);
+    }
+  }
+
+  private void flush() {
+    if (writer != null) {
+      try {
+        writer.flush();
+      } catch (IOException e) {
+        sbtLogger.debug(() -> "failed to write the diagnostics " + diagnosticsFile + ": " + e);
+      }
+    }
+  }
+
+  // same layout as zinc's LoggedReporter
+  private static String format(Problem problem) {
+    Position position = problem.position();
+    StringBuilder message = new StringBuilder();
+    position.sourcePath().ifPresent(path -> message.append(path).append(':'));
+    position.line().ifPresent(line -> message.append(line).append(':'));
+    if (message.length() > 0) {
+      message.append(' ');
+    }
+    message.append(problem.message());
+    if (!position.lineContent().isEmpty()) {
+      message.append('\n').append(position.lineContent());
+      position.pointerSpace().ifPresent(space -> message.append('\n').append(space).append('^'));
+    }
+    return message.toString();
+  }
+}
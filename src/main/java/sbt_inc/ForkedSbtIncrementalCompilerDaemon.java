@@ -0,0 +1,189 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background incremental compiler JVM, reused across Maven invocations.
+ *
+ * <p>The daemon listens on a loopback socket. Its port and a secret token are published in a state
+ * file under {@code ~/.scala-maven-plugin/daemons}, named after a hash of the java executable,
+ * jvmArgs and classpath it was started with. Each connection carries one compile request, prefixed
+ * by the token, using the {@link ForkedSbtIncrementalCompilerProtocol}. The daemon stops after an
+ * idle timeout.
+ *
+ * @see ForkedSbtIncrementalCompilerDaemonClient
+ */
+public final class ForkedSbtIncrementalCompilerDaemon {
+
+  static final String PORT = "port";
+  static final String TOKEN = "token";
+
+  private static final boolean POSIX =
+      FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+  private ForkedSbtIncrementalCompilerDaemon() {}
+
+  static Properties readState(File stateFile) throws IOException {
+    Properties state = new Properties();
+    try (InputStream is = Files.newInputStream(stateFile.toPath())) {
+      state.load(is);
+    }
+    return state;
+  }
+
+  public static void main(String[] args) throws Exception {
+    File stateFile = new File(args[0]);
+    long idleTimeoutMillis = Long.parseLong(args[1]);
+
+    byte[] tokenBytes = new byte[16];
+    new SecureRandom().nextBytes(tokenBytes);
+    String token = Base64.getUrlEncoder().withoutPadding().encodeToString(tokenBytes);
+
+    AtomicInteger openConnections = new AtomicInteger();
+    AtomicLong lastActivity = new AtomicLong(System.currentTimeMillis());
+    ExecutorService executor =
+        Executors.newCachedThreadPool(
+            r -> {
+              Thread t = new Thread(r, "scala-maven-plugin-compile-daemon");
+              t.setDaemon(true);
+              return t;
+            });
+
+    try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+      server.setSoTimeout((int) Math.min(idleTimeoutMillis, 10_000));
+      writeState(stateFile, server.getLocalPort(), token);
+      System.out.println("compile daemon listening on port " + server.getLocalPort());
+
+      while (openConnections.get() > 0
+          || System.currentTimeMillis() - lastActivity.get() < idleTimeoutMillis) {
+        Socket socket;
+        try {
+          socket = server.accept();
+        } catch (SocketTimeoutException e) {
+          continue;
+        }
+        openConnections.incrementAndGet();
+        executor.execute(
+            () -> {
+              try {
+                if (handle(socket, token)) {
+                  lastActivity.set(System.currentTimeMillis());
+                }
+              } finally {
+                openConnections.decrementAndGet();
+              }
+            });
+      }
+    } finally {
+      // only remove the state file if it still describes this daemon
+      if (stateFile.isFile() && token.equals(readState(stateFile).getProperty(TOKEN))) {
+        Files.deleteIfExists(stateFile.toPath());
+      }
+    }
+    System.out.println("compile daemon stopped after being idle");
+    System.exit(0);
+  }
+
+  // the token lets any process reading it compile, so run code, as the owner of the daemon
+  private static void writeState(File stateFile, int port, String token) throws IOException {
+    Properties state = new Properties();
+    state.setProperty(PORT, String.valueOf(port));
+    state.setProperty(TOKEN, token);
+    File tmpFile = new File(stateFile.getPath() + ".tmp");
+    Files.deleteIfExists(tmpFile.toPath());
+    createPrivateFile(tmpFile);
+    try (OutputStream os =
+        Files.newOutputStream(tmpFile.toPath(), StandardOpenOption.TRUNCATE_EXISTING)) {
+      state.store(os, "scala-maven-plugin compile daemon");
+    }
+    Files.move(
+        tmpFile.toPath(),
+        stateFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Creates the directory, and its missing parents, accessible by the owner only. */
+  static void createPrivateDirectories(File dir) throws IOException {
+    if (POSIX) {
+      Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rwx------");
+      Files.createDirectories(dir.toPath(), PosixFilePermissions.asFileAttribute(permissions));
+      // created by a previous version
+      Files.setPosixFilePermissions(dir.toPath(), permissions);
+    } else {
+      Files.createDirectories(dir.toPath());
+      ownerOnly(dir);
+      dir.setExecutable(false, false);
+      dir.setExecutable(true, true);
+    }
+  }
+
+  // created readable by the owner only, before anything is written to it
+  private static void createPrivateFile(File file) throws IOException {
+    if (POSIX) {
+      Files.createFile(
+          file.toPath(),
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } else {
+      Files.createFile(file.toPath());
+      ownerOnly(file);
+    }
+  }
+
+  private static void ownerOnly(File file) {
+    file.setReadable(false, false);
+    file.setReadable(true, true);
+    file.setWritable(false, false);
+    file.setWritable(true, true);
+  }
+
+  /** Serves the request of the connection, returns false if there was none. */
+  private static boolean handle(Socket socket, String token) {
+    try (Socket s = socket) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+      String received;
+      try {
+        received = in.readUTF();
+      } catch (EOFException e) {
+        // closed without a request, eg by a client checking that the daemon is listening
+        return false;
+      }
+      if (!token.equals(received)) {
+        return false;
+      }
+      ForkedSbtIncrementalCompilerMain.Args request =
+          ForkedSbtIncrementalCompilerProtocol.readRequest(in);
+      if (request == null) {
+        return false;
+      }
+      ForkedSbtIncrementalCompilerProtocol.FrameWriter writer =
+          new ForkedSbtIncrementalCompilerProtocol.FrameWriter(s.getOutputStream());
+      writer.writeMagic();
+      writer.result(ForkedSbtIncrementalCompilerWorker.serve(request, writer));
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return true;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import org.apache.maven.plugin.MojoFailureException;
+import scala_maven_executions.Fork;
+
+/**
+ * Maven side of the {@link ForkedSbtIncrementalCompilerDaemon}: finds the daemon matching the java
+ * executable, jvmArgs and classpath, starting it if needed, and sends it the compile requests.
+ */
+final class ForkedSbtIncrementalCompilerDaemonClient {
+
+  private static final File DAEMONS_DIR =
+      Paths.get(System.getProperty("user.home"), ".scala-maven-plugin", "daemons").toFile();
+  private static final long START_TIMEOUT_MILLIS = 60_000;
+
+  private ForkedSbtIncrementalCompilerDaemonClient() {}
+
+  /** Send a compile request to the daemon matching the key, starting it if needed. */
+  static void compile(
+      File javaExec,
+      String[] jvmArgs,
+      List<String> forkClasspath,
+      Collection<File> compilerAndDependencies,
+      int idleTimeoutMinutes,
+      ForkedSbtIncrementalCompilerMain.Args args,
+      ForkedSbtIncrementalCompilerProtocol.LogListener listener)
+      throws Exception {
+    String key = key(javaExec, jvmArgs, forkClasspath, compilerAndDependencies);
+    File stateFile = new File(DAEMONS_DIR, key + ".properties");
+
+    Properties state = connectableState(stateFile);
+    if (state == null) {
+      state = start(key, stateFile, javaExec, jvmArgs, forkClasspath, idleTimeoutMinutes);
+    }
+
+    boolean success;
+    try (Socket socket =
+        new Socket(
+            InetAddress.getLoopbackAddress(),
+            Integer.parseInt(state.getProperty(ForkedSbtIncrementalCompilerDaemon.PORT)))) {
+      new DataOutputStream(socket.getOutputStream())
+          .writeUTF(state.getProperty(ForkedSbtIncrementalCompilerDaemon.TOKEN));
+      success =
+          ForkedSbtIncrementalCompilerProtocol.sendRequest(
+              new ForkedSbtIncrementalCompilerProtocol.FrameWriter(socket.getOutputStream()),
+              new DataInputStream(new BufferedInputStream(socket.getInputStream())),
+              true,
+              args,
+              listener);
+    }
+    if (!success) {
+      throw new MojoFailureException("compilation by the compile daemon failed");
+    }
+  }
+
+  private static String key(
+      File javaExec,
+      String[] jvmArgs,
+      List<String> forkClasspath,
+      Collection<File> compilerAndDependencies)
+      throws Exception {
+    StringBuilder keyBuilder = new StringBuilder(javaExec.getCanonicalPath());
+    for (String jvmArg : jvmArgs) {
+      keyBuilder.append('\n').append(jvmArg);
+    }
+    // a rebuilt plugin (eg a SNAPSHOT) must not talk to a daemon running the previous build
+    for (String entry : forkClasspath) {
+      File file = new File(entry);
+      keyBuilder
+          .append('\n')
+          .append(entry)
+          .append(':')
+          .append(file.length())
+          .append(':')
+          .append(file.lastModified());
+    }
+    for (File file : compilerAndDependencies) {
+      keyBuilder.append('\n').append(file.getPath());
+    }
+    byte[] digest =
+        MessageDigest.getInstance("SHA-1")
+            .digest(keyBuilder.toString().getBytes(StandardCharsets.UTF_8));
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  /** Returns the state of the daemon if it's running and accepting connections. */
+  private static Properties connectableState(File stateFile) {
+    if (!stateFile.isFile()) {
+      return null;
+    }
+    try {
+      Properties state = ForkedSbtIncrementalCompilerDaemon.readState(stateFile);
+      try (Socket ignored =
+          new Socket(
+              InetAddress.getLoopbackAddress(),
+              Integer.parseInt(state.getProperty(ForkedSbtIncrementalCompilerDaemon.PORT)))) {
+        return state;
+      }
+    } catch (Exception e) {
+      // stale state file, the daemon is gone
+      return null;
+    }
+  }
+
+  private static Properties start(
+      String key,
+      File stateFile,
+      File javaExec,
+      String[] jvmArgs,
+      List<String> forkClasspath,
+      int idleTimeoutMinutes)
+      throws Exception {
+    // holds the tokens of the daemons, see ForkedSbtIncrementalCompilerDaemon.writeState
+    ForkedSbtIncrementalCompilerDaemon.createPrivateDirectories(DAEMONS_DIR);
+    // prevent modules built in parallel, or concurrent builds, from starting several daemons
+    synchronized (ForkedSbtIncrementalCompilerDaemonClient.class) {
+      try (FileChannel channel =
+              FileChannel.open(
+                  new File(DAEMONS_DIR, key + ".lock").toPath(),
+                  StandardOpenOption.CREATE,
+                  StandardOpenOption.WRITE);
+          FileLock ignored = channel.lock()) {
+        Properties state = connectableState(stateFile);
+        if (state != null) {
+          return state;
+        }
+        Files.deleteIfExists(stateFile.toPath());
+
+        File logFile = new File(DAEMONS_DIR, key + ".log");
+        Process process =
+            new Fork(
+                    ForkedSbtIncrementalCompilerDaemon.class.getName(),
+                    forkClasspath,
+                    jvmArgs,
+                    new String[] {
+                      stateFile.getPath(), String.valueOf(idleTimeoutMinutes * 60_000L)
+                    },
+                    javaExec)
+                .start(logFile);
+        process.getOutputStream().close();
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+          state = connectableState(stateFile);
+          if (state != null) {
+            return state;
+          }
+          if (!process.isAlive()) {
+            break;
+          }
+          Thread.sleep(100);
+        }
+        process.destroy();
+        throw new IllegalStateException("compile daemon failed to start, see " + logFile);
+      }
+    }
+  }
+}
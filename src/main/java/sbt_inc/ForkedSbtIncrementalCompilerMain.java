@@ -5,27 +5,26 @@
 package sbt_inc;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
-import sbt.internal.inc.ScalaInstance;
 import sbt.util.Level;
 import sbt.util.Logger;
 import scala.Enumeration;
 import scala.Function0;
 import scala_maven_executions.ForkLogLevel;
-import xsbti.compile.*;
 
 public final class ForkedSbtIncrementalCompilerMain {
 
   public static final class Args {
     public final File javaHome;
     public final File cacheFile;
-    public final CompileOrder compileOrder;
     public final File compilerBridgeJar;
+    public final File jarFingerprintsFile;
     public final String scalaVersion;
     public final Collection<File> compilerAndDependencies;
     public final Collection<File> libraryAndDependencies;
+    public final SbtIncrementalCompilerSettings settings;
 
     public final Collection<File> classpathElements;
     public final Collection<File> sources;
@@ -38,11 +37,12 @@ public final class ForkedSbtIncrementalCompilerMain {
     public Args(
         File javaHome,
         File cacheFile,
-        CompileOrder compileOrder,
         File compilerBridgeJar,
+        File jarFingerprintsFile,
         String scalaVersion,
         Collection<File> compilerAndDependencies,
         Collection<File> libraryAndDependencies,
+        SbtIncrementalCompilerSettings settings,
         Collection<File> classpathElements,
         Collection<File> sources,
         File classesDirectory,
@@ -51,11 +51,12 @@ public final class ForkedSbtIncrementalCompilerMain {
         boolean debugEnabled) {
       this.javaHome = javaHome;
       this.cacheFile = cacheFile;
-      this.compileOrder = compileOrder;
       this.compilerBridgeJar = compilerBridgeJar;
+      this.jarFingerprintsFile = jarFingerprintsFile;
       this.scalaVersion = scalaVersion;
       this.compilerAndDependencies = compilerAndDependencies;
       this.libraryAndDependencies = libraryAndDependencies;
+      this.settings = settings;
       this.classpathElements = classpathElements;
       this.sources = sources;
       this.classesDirectory = classesDirectory;
@@ -64,66 +65,81 @@ public final class ForkedSbtIncrementalCompilerMain {
       this.debugEnabled = debugEnabled;
     }
 
-    private <T> void writeCollection(
-        List<String> args, Collection<T> collection, Function<T, String> f) {
-      args.add(String.valueOf(collection.size()));
+    // unlike writeUTF, not limited to 64 KB, eg for long scalac options
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static <T> void writeCollection(
+        DataOutputStream out, Collection<T> collection, Function<T, String> f) throws IOException {
+      out.writeInt(collection.size());
       for (T entry : collection) {
-        args.add(f.apply(entry));
+        writeString(out, f.apply(entry));
       }
     }
 
-    public String[] generateArgs() {
-      List<String> args = new ArrayList<>();
-      args.add(javaHome.toString());
-      args.add(cacheFile.getPath());
-      args.add(compileOrder.name());
-      args.add(compilerBridgeJar.getPath());
-      args.add(scalaVersion);
-      writeCollection(args, compilerAndDependencies, File::getPath);
-      writeCollection(args, libraryAndDependencies, File::getPath);
-      writeCollection(args, classpathElements, File::getPath);
-      writeCollection(args, sources, File::getPath);
-      args.add(classesDirectory.toString());
-      writeCollection(args, scalacOptions, Function.identity());
-      writeCollection(args, javacOptions, Function.identity());
-      args.add(String.valueOf(debugEnabled));
-      return args.toArray(new String[] {});
+    /** Write the request, see {@link ForkedSbtIncrementalCompilerProtocol}. */
+    void write(DataOutputStream out) throws IOException {
+      writeString(out, javaHome.getPath());
+      writeString(out, cacheFile.getPath());
+      writeString(out, compilerBridgeJar.getPath());
+      writeString(out, jarFingerprintsFile.getPath());
+      writeString(out, scalaVersion);
+      writeCollection(out, compilerAndDependencies, File::getPath);
+      writeCollection(out, libraryAndDependencies, File::getPath);
+      settings.write(out);
+      writeCollection(out, classpathElements, File::getPath);
+      writeCollection(out, sources, File::getPath);
+      writeString(out, classesDirectory.getPath());
+      writeCollection(out, scalacOptions, Function.identity());
+      writeCollection(out, javacOptions, Function.identity());
+      out.writeBoolean(debugEnabled);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
     }
 
-    private static <T> List<T> readList(String[] args, AtomicInteger index, Function<String, T> f) {
-      int size = Integer.parseInt(args[index.getAndIncrement()]);
+    private static <T> List<T> readList(DataInputStream in, Function<String, T> f)
+        throws IOException {
+      int size = in.readInt();
       List<T> list = new ArrayList<>(size);
       for (int i = 0; i < size; i++) {
-        list.add(f.apply(args[index.getAndIncrement()]));
+        list.add(f.apply(readString(in)));
       }
       return list;
     }
 
-    static Args parseArgs(String[] args) {
-      AtomicInteger index = new AtomicInteger();
-
-      File javaHome = new File(args[index.getAndIncrement()]);
-      File cacheFile = new File(args[index.getAndIncrement()]);
-      CompileOrder compileOrder = CompileOrder.valueOf(args[index.getAndIncrement()]);
-      File compilerBridgeJar = new File(args[index.getAndIncrement()]);
-      String scalaVersion = args[index.getAndIncrement()];
-      List<File> compilerAndDependencies = readList(args, index, File::new);
-      List<File> libraryAndDependencies = readList(args, index, File::new);
-      List<File> classpathElements = readList(args, index, File::new);
-      List<File> sources = readList(args, index, File::new);
-      File classesDirectory = new File(args[index.getAndIncrement()]);
-      List<String> scalacOptions = readList(args, index, Function.identity());
-      List<String> javacOptions = readList(args, index, Function.identity());
-      boolean debugEnabled = Boolean.parseBoolean(args[index.getAndIncrement()]);
+    /** Read a request written by {@link #write(DataOutputStream)}. */
+    static Args read(DataInputStream in) throws IOException {
+      File javaHome = new File(readString(in));
+      File cacheFile = new File(readString(in));
+      File compilerBridgeJar = new File(readString(in));
+      File jarFingerprintsFile = new File(readString(in));
+      String scalaVersion = readString(in);
+      List<File> compilerAndDependencies = readList(in, File::new);
+      List<File> libraryAndDependencies = readList(in, File::new);
+      SbtIncrementalCompilerSettings settings = SbtIncrementalCompilerSettings.read(in);
+      List<File> classpathElements = readList(in, File::new);
+      List<File> sources = readList(in, File::new);
+      File classesDirectory = new File(readString(in));
+      List<String> scalacOptions = readList(in, Function.identity());
+      List<String> javacOptions = readList(in, Function.identity());
+      boolean debugEnabled = in.readBoolean();
 
       return new Args(
           javaHome,
           cacheFile,
-          compileOrder,
           compilerBridgeJar,
+          jarFingerprintsFile,
           scalaVersion,
           compilerAndDependencies,
           libraryAndDependencies,
+          settings,
           classpathElements,
           sources,
           classesDirectory,
@@ -133,58 +149,41 @@ public final class ForkedSbtIncrementalCompilerMain {
     }
   }
 
-  public static void main(String[] args) {
-    Args parsedArgs = Args.parseArgs(args);
-
-    Logger sbtLogger =
-        new Logger() {
-          @Override
-          public void log(Enumeration.Value level, Function0<String> message) {
-            ForkLogLevel forkLogLevel = null;
-            if (level.equals(Level.Error())) {
-              forkLogLevel = ForkLogLevel.ERROR;
-            } else if (level.equals(Level.Warn())) {
-              forkLogLevel = ForkLogLevel.WARN;
-            } else if (level.equals(Level.Info())) {
-              forkLogLevel = ForkLogLevel.INFO;
-            } else if (level.equals(Level.Debug()) && parsedArgs.debugEnabled) {
-              forkLogLevel = ForkLogLevel.DEBUG;
-            }
-
-            if (forkLogLevel != null) {
-              System.out.println(forkLogLevel.addHeader(message.apply()));
-            }
+  private ForkedSbtIncrementalCompilerMain() {}
+
+  /** Logger sending the messages as log frames to the parent. */
+  static Logger makeLogger(
+      ForkedSbtIncrementalCompilerProtocol.FrameWriter writer, boolean debugEnabled) {
+    return new Logger() {
+      @Override
+      public void log(Enumeration.Value level, Function0<String> message) {
+        ForkLogLevel forkLogLevel = null;
+        if (level.equals(Level.Error())) {
+          forkLogLevel = ForkLogLevel.ERROR;
+        } else if (level.equals(Level.Warn())) {
+          forkLogLevel = ForkLogLevel.WARN;
+        } else if (level.equals(Level.Info())) {
+          forkLogLevel = ForkLogLevel.INFO;
+        } else if (level.equals(Level.Debug()) && debugEnabled) {
+          forkLogLevel = ForkLogLevel.DEBUG;
+        }
+
+        if (forkLogLevel != null) {
+          try {
+            writer.log(forkLogLevel, message.apply());
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
           }
+        }
+      }
 
-          @Override
-          public void success(Function0<String> message) {
-            log(Level.Info(), message);
-          }
+      @Override
+      public void success(Function0<String> message) {
+        log(Level.Info(), message);
+      }
 
-          @Override
-          public void trace(Function0<Throwable> t) {}
-        };
-
-    ScalaInstance scalaInstance =
-        ScalaInstances.makeScalaInstance(
-            parsedArgs.scalaVersion,
-            parsedArgs.compilerAndDependencies,
-            parsedArgs.libraryAndDependencies);
-
-    SbtIncrementalCompiler incrementalCompiler =
-        SbtIncrementalCompilers.makeInProcess(
-            parsedArgs.javaHome,
-            parsedArgs.cacheFile,
-            parsedArgs.compileOrder,
-            scalaInstance,
-            parsedArgs.compilerBridgeJar,
-            sbtLogger);
-
-    incrementalCompiler.compile(
-        parsedArgs.classpathElements,
-        parsedArgs.sources,
-        parsedArgs.classesDirectory,
-        parsedArgs.scalacOptions,
-        parsedArgs.javacOptions);
+      @Override
+      public void trace(Function0<Throwable> t) {}
+    };
   }
 }
@@ -0,0 +1,252 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import scala_maven_executions.ForkLogLevel;
+
+/**
+ * Binary protocol between Maven and the forked incremental compilers (the {@link
+ * ForkedSbtIncrementalCompilerWorker} processes and the {@link
+ * ForkedSbtIncrementalCompilerDaemon}).
+ *
+ * <p>Each side writes typed, length-prefixed frames: a frame type byte, the payload length as an
+ * int, then the payload. A compile request ({@link ForkedSbtIncrementalCompilerMain.Args}) is
+ * streamed as {@link #REQUEST_CHUNK} frames of at most {@link #CHUNK_SIZE} bytes ended by a {@link
+ * #REQUEST_END} frame, so the sources and classpath are serialized and parsed on the fly without
+ * holding them as strings. The forked compiler answers with the {@link #MAGIC} number, once per
+ * connection, then {@link #LOG} frames (the level as a byte, then the UTF-8 message), which also
+ * carry the diagnostics and the progress messages, and a {@link #RESULT} frame.
+ */
+final class ForkedSbtIncrementalCompilerProtocol {
+
+  /** Starts the frames of the forked compiler, anything before is output of the JVM itself. */
+  static final int MAGIC = 0x534d5046; // "SMPF"
+
+  static final byte REQUEST_CHUNK = 1;
+  static final byte REQUEST_END = 2;
+  static final byte LOG = 3;
+  static final byte RESULT = 4;
+
+  static final int CHUNK_SIZE = 64 * 1024;
+
+  private static final ForkLogLevel[] LEVELS = ForkLogLevel.values();
+
+  private ForkedSbtIncrementalCompilerProtocol() {}
+
+  /** Receiver of the messages of a forked compilation. */
+  interface LogListener {
+    void log(ForkLogLevel level, String message);
+  }
+
+  /** Writes frames to a stream, from any thread. */
+  static final class FrameWriter {
+    private final DataOutputStream out;
+
+    FrameWriter(OutputStream out) {
+      this.out = new DataOutputStream(new BufferedOutputStream(out, CHUNK_SIZE + 5));
+    }
+
+    synchronized void writeMagic() throws IOException {
+      out.writeInt(MAGIC);
+      out.flush();
+    }
+
+    synchronized void write(byte type, byte[] payload, int length) throws IOException {
+      out.writeByte(type);
+      out.writeInt(length);
+      out.write(payload, 0, length);
+    }
+
+    synchronized void log(ForkLogLevel level, String message) throws IOException {
+      byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+      out.writeByte(LOG);
+      out.writeInt(bytes.length + 1);
+      out.writeByte(level.ordinal());
+      out.write(bytes);
+      // let Maven show the progress as it comes
+      out.flush();
+    }
+
+    synchronized void result(boolean success) throws IOException {
+      out.writeByte(RESULT);
+      out.writeInt(1);
+      out.writeBoolean(success);
+      out.flush();
+    }
+
+    synchronized void flush() throws IOException {
+      out.flush();
+    }
+  }
+
+  /** Writes a compile request as a stream of chunk frames. */
+  static void writeRequest(FrameWriter writer, ForkedSbtIncrementalCompilerMain.Args args)
+      throws IOException {
+    OutputStream chunks =
+        new OutputStream() {
+          private final byte[] buffer = new byte[CHUNK_SIZE];
+          private int length;
+
+          @Override
+          public void write(int b) throws IOException {
+            if (length == buffer.length) {
+              writer.write(REQUEST_CHUNK, buffer, length);
+              length = 0;
+            }
+            buffer[length++] = (byte) b;
+          }
+
+          @Override
+          public void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+              if (length == buffer.length) {
+                writer.write(REQUEST_CHUNK, buffer, length);
+                length = 0;
+              }
+              int copied = Math.min(count, buffer.length - length);
+              System.arraycopy(bytes, offset, buffer, length, copied);
+              length += copied;
+              offset += copied;
+              count -= copied;
+            }
+          }
+
+          @Override
+          public void close() throws IOException {
+            writer.write(REQUEST_END, buffer, length);
+            writer.flush();
+          }
+        };
+    try (DataOutputStream out = new DataOutputStream(chunks)) {
+      args.write(out);
+    }
+  }
+
+  /** Reads a compile request, or returns null if the stream is closed before one starts. */
+  static ForkedSbtIncrementalCompilerMain.Args readRequest(DataInputStream in) throws IOException {
+    int type = in.read();
+    if (type < 0) {
+      return null;
+    }
+    InputStream chunks =
+        new InputStream() {
+          private int frameType = type;
+          private int remaining = in.readInt();
+
+          // move to the next chunk when the current one is consumed, false at the end
+          private boolean nextChunk() throws IOException {
+            while (remaining == 0) {
+              if (frameType == REQUEST_END) {
+                return false;
+              }
+              frameType = in.readUnsignedByte();
+              remaining = in.readInt();
+            }
+            if (frameType != REQUEST_CHUNK && frameType != REQUEST_END) {
+              throw new IOException("unexpected frame " + frameType + " in a request");
+            }
+            return true;
+          }
+
+          @Override
+          public int read() throws IOException {
+            if (!nextChunk()) {
+              return -1;
+            }
+            remaining--;
+            return in.read();
+          }
+
+          @Override
+          public int read(byte[] bytes, int offset, int count) throws IOException {
+            if (count == 0) {
+              return 0;
+            }
+            if (!nextChunk()) {
+              return -1;
+            }
+            int read = in.read(bytes, offset, Math.min(count, remaining));
+            if (read < 0) {
+              throw new EOFException();
+            }
+            remaining -= read;
+            return read;
+          }
+        };
+    ForkedSbtIncrementalCompilerMain.Args args =
+        ForkedSbtIncrementalCompilerMain.Args.read(new DataInputStream(chunks));
+    // skip what this version doesn't read, up to the end of the request
+    while (chunks.read() >= 0) {}
+    return args;
+  }
+
+  /**
+   * Sends a compile request, then forwards the messages to the listener until the result comes.
+   * With readMagic, for the first request of a connection, the output of the JVM before the first
+   * frame (eg about JAVA_TOOL_OPTIONS) is forwarded as warnings.
+   */
+  static boolean sendRequest(
+      FrameWriter writer,
+      DataInputStream in,
+      boolean readMagic,
+      ForkedSbtIncrementalCompilerMain.Args args,
+      LogListener listener)
+      throws IOException {
+    writeRequest(writer, args);
+    if (readMagic) {
+      skipToMagic(in, listener);
+    }
+    while (true) {
+      int type = in.read();
+      if (type < 0) {
+        throw new IOException("forked compiler exited unexpectedly");
+      }
+      byte[] payload = new byte[in.readInt()];
+      in.readFully(payload);
+      switch (type) {
+        case LOG:
+          listener.log(
+              LEVELS[payload[0]],
+              new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8));
+          break;
+        case RESULT:
+          return payload[0] != 0;
+        default:
+          throw new IOException("unexpected frame " + type + " from the forked compiler");
+      }
+    }
+  }
+
+  private static void skipToMagic(DataInputStream in, LogListener listener) throws IOException {
+    ByteArrayOutputStream preamble = new ByteArrayOutputStream();
+    int window = 0;
+    int read = 0;
+    while (read < 4 || window != MAGIC) {
+      int b = in.read();
+      if (b < 0) {
+        for (int i = Math.min(read, 4) - 1; i >= 0; i--) {
+          preamble.write(window >>> (8 * i));
+        }
+        if (preamble.size() > 0) {
+          listener.log(
+              ForkLogLevel.ERROR,
+              new String(preamble.toByteArray(), StandardCharsets.UTF_8).trim());
+        }
+        throw new IOException("forked compiler exited unexpectedly");
+      }
+      if (read >= 4) {
+        preamble.write(window >>> 24);
+      }
+      window = (window << 8) | b;
+      read++;
+    }
+    if (preamble.size() > 0) {
+      listener.log(
+          ForkLogLevel.WARN, new String(preamble.toByteArray(), StandardCharsets.UTF_8).trim());
+    }
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import sbt.internal.inc.ScalaInstance;
+import sbt.util.Logger;
+import sbt_inc.ForkedSbtIncrementalCompilerProtocol.FrameWriter;
+import scala.Enumeration;
+import scala.Function0;
+import scala_maven_executions.ForkLogLevel;
+
+/**
+ * Main of a forked incremental compiler JVM that stays alive to serve many compile requests.
+ *
+ * <p>The requests are read from the standard input, and the messages and results written to the
+ * standard output, with the {@link ForkedSbtIncrementalCompilerProtocol}. Whatever else is printed
+ * by the compilers to {@link System#out} or {@link System#err} is sent as log frames too. The
+ * worker exits when its standard input is closed.
+ */
+public final class ForkedSbtIncrementalCompilerWorker {
+
+  private static final int MAX_CACHED_COMPILERS = 32;
+  private static final int MAX_CACHED_SCALA_INSTANCES = 8;
+  private static final int MAX_CACHED_CLASSLOADERS = 8;
+  private static final int UPSTREAM_ANALYSIS_CACHE_SIZE = 64;
+
+  // keep the compilers, and the analysis they loaded, warm between requests
+  private static final Map<List<Object>, CachedCompiler> compilers =
+      new LinkedHashMap<List<Object>, CachedCompiler>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedCompiler> eldest) {
+          return size() > MAX_CACHED_COMPILERS;
+        }
+      };
+
+  private ForkedSbtIncrementalCompilerWorker() {}
+
+  public static void main(String[] args) throws IOException {
+    FrameWriter writer = new FrameWriter(new FileOutputStream(FileDescriptor.out));
+    System.setOut(new PrintStream(new LogLineStream(writer, ForkLogLevel.INFO), true, "UTF-8"));
+    System.setErr(new PrintStream(new LogLineStream(writer, ForkLogLevel.ERROR), true, "UTF-8"));
+    writer.writeMagic();
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+    ForkedSbtIncrementalCompilerMain.Args request;
+    while ((request = ForkedSbtIncrementalCompilerProtocol.readRequest(in)) != null) {
+      writer.result(serve(request, writer));
+    }
+  }
+
+  /** Run a compile request, sending its messages to writer. */
+  static boolean serve(ForkedSbtIncrementalCompilerMain.Args request, FrameWriter writer)
+      throws IOException {
+    try {
+      CachedCompiler compiler = compilerFor(request);
+      synchronized (compiler) {
+        compiler.logger.delegate =
+            ForkedSbtIncrementalCompilerMain.makeLogger(writer, request.debugEnabled);
+        try {
+          compiler.compiler.compile(
+              request.classpathElements,
+              request.sources,
+              request.classesDirectory,
+              request.scalacOptions,
+              request.javacOptions);
+        } finally {
+          compiler.recordAnalysisStamp();
+        }
+      }
+      return true;
+    } catch (xsbti.CompileFailed e) {
+      // problems have already been reported
+      return false;
+    } catch (Throwable t) {
+      StringWriter stacktrace = new StringWriter();
+      t.printStackTrace(new PrintWriter(stacktrace));
+      writer.log(ForkLogLevel.ERROR, stacktrace.toString());
+      return false;
+    }
+  }
+
+  private static CachedCompiler compilerFor(ForkedSbtIncrementalCompilerMain.Args parsedArgs) {
+    List<Object> compilerKey =
+        Arrays.asList(
+            parsedArgs.javaHome,
+            parsedArgs.cacheFile,
+            parsedArgs.settings.compileOrder,
+            parsedArgs.settings.analysisStoreFormat,
+            parsedArgs.compilerBridgeJar,
+            parsedArgs.jarFingerprintsFile,
+            parsedArgs.settings.pipelining,
+            parsedArgs.settings.adaptiveRecompile,
+            parsedArgs.settings.compactAnalysis,
+            parsedArgs.settings.maxErrors,
+            parsedArgs.settings.maxLoggedWarnings,
+            parsedArgs.scalaVersion,
+            parsedArgs.compilerAndDependencies,
+            parsedArgs.libraryAndDependencies);
+
+    synchronized (compilers) {
+      CachedCompiler compiler = compilers.get(compilerKey);
+      // the analysis may have been updated by another process since the last compilation
+      if (compiler == null || !compiler.isAnalysisUpToDate()) {
+        // keep the scala instances (and the classes loaded by them) warm between requests
+        ScalaInstance scalaInstance =
+            ScalaInstances.getScalaInstance(
+                parsedArgs.scalaVersion,
+                parsedArgs.compilerAndDependencies,
+                parsedArgs.libraryAndDependencies,
+                MAX_CACHED_SCALA_INSTANCES);
+        RedirectableLogger logger = new RedirectableLogger();
+        SbtIncrementalCompilerSettings settings = parsedArgs.settings.copy();
+        settings.classLoaderCacheSize = MAX_CACHED_CLASSLOADERS;
+        settings.analysisCacheSize = UPSTREAM_ANALYSIS_CACHE_SIZE;
+        // the analysis may be read by another worker, see isAnalysisUpToDate
+        settings.writeBehindAnalysis = false;
+        compiler =
+            new CachedCompiler(
+                SbtIncrementalCompilers.makeInProcess(
+                    parsedArgs.javaHome,
+                    parsedArgs.cacheFile,
+                    scalaInstance,
+                    parsedArgs.compilerBridgeJar,
+                    parsedArgs.jarFingerprintsFile,
+                    logger,
+                    settings),
+                logger,
+                parsedArgs.cacheFile);
+        compilers.put(compilerKey, compiler);
+      }
+      return compiler;
+    }
+  }
+
+  private static final class CachedCompiler {
+    private final SbtIncrementalCompiler compiler;
+    private final RedirectableLogger logger;
+    private final File cacheFile;
+    private long cacheFileLength;
+    private long cacheFileLastModified;
+
+    CachedCompiler(SbtIncrementalCompiler compiler, RedirectableLogger logger, File cacheFile) {
+      this.compiler = compiler;
+      this.logger = logger;
+      this.cacheFile = cacheFile;
+      recordAnalysisStamp();
+    }
+
+    void recordAnalysisStamp() {
+      cacheFileLength = cacheFile.length();
+      cacheFileLastModified = cacheFile.lastModified();
+    }
+
+    boolean isAnalysisUpToDate() {
+      return cacheFile.length() == cacheFileLength
+          && cacheFile.lastModified() == cacheFileLastModified;
+    }
+  }
+
+  /** Logger of a cached compiler, sending the messages to the request being served. */
+  private static final class RedirectableLogger extends Logger {
+    private volatile Logger delegate;
+
+    @Override
+    public void log(Enumeration.Value level, Function0<String> message) {
+      delegate.log(level, message);
+    }
+
+    @Override
+    public void success(Function0<String> message) {
+      delegate.success(message);
+    }
+
+    @Override
+    public void trace(Function0<Throwable> t) {
+      delegate.trace(t);
+    }
+  }
+
+  /** Stream sending each line printed to it as a log frame. */
+  private static final class LogLineStream extends OutputStream {
+    private final FrameWriter writer;
+    private final ForkLogLevel level;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    LogLineStream(FrameWriter writer, ForkLogLevel level) {
+      this.writer = writer;
+      this.level = level;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+      if (b == '\n') {
+        flushLine();
+      } else if (b != '\r') {
+        line.write(b);
+      }
+    }
+
+    private void flushLine() throws IOException {
+      writer.log(level, new String(line.toByteArray(), StandardCharsets.UTF_8));
+      line.reset();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.util.*;
+import org.apache.maven.plugin.MojoFailureException;
+import scala_maven_executions.Fork;
+
+/**
+ * Pool of {@link ForkedSbtIncrementalCompilerWorker} JVMs, shared by all the modules of a Maven
+ * session. Workers are keyed by java executable, jvmArgs and classpath, and are destroyed when the
+ * Maven JVM exits.
+ */
+final class ForkedSbtIncrementalCompilerWorkerPool {
+
+  private static final Map<List<Object>, Deque<Worker>> idleWorkers = new HashMap<>();
+  private static final Set<Worker> allWorkers = new HashSet<>();
+
+  static {
+    Runtime.getRuntime()
+        .addShutdownHook(new Thread(ForkedSbtIncrementalCompilerWorkerPool::destroyAll));
+  }
+
+  private ForkedSbtIncrementalCompilerWorkerPool() {}
+
+  /**
+   * Run a compilation on an idle worker matching the key, starting a new one if none is available.
+   */
+  static void compile(
+      File javaExec,
+      String[] jvmArgs,
+      List<String> forkClasspath,
+      Collection<File> compilerAndDependencies,
+      ForkedSbtIncrementalCompilerMain.Args args,
+      ForkedSbtIncrementalCompilerProtocol.LogListener listener)
+      throws Exception {
+    List<Object> key =
+        Arrays.asList(
+            javaExec,
+            Arrays.asList(jvmArgs),
+            forkClasspath,
+            new ArrayList<>(compilerAndDependencies));
+    Worker worker = acquire(key);
+    if (worker == null) {
+      worker = start(key, javaExec, jvmArgs, forkClasspath);
+    }
+
+    boolean success;
+    try {
+      success = worker.compile(args, listener);
+    } catch (Exception e) {
+      // the worker is in an unknown state, don't reuse it
+      worker.destroy();
+      throw e;
+    }
+    release(worker);
+    if (!success) {
+      throw new MojoFailureException("forked compilation failed");
+    }
+  }
+
+  /** Run a compilation on a new worker, stopped afterwards. */
+  static void compileOnce(
+      File javaExec,
+      String[] jvmArgs,
+      List<String> forkClasspath,
+      ForkedSbtIncrementalCompilerMain.Args args,
+      ForkedSbtIncrementalCompilerProtocol.LogListener listener)
+      throws Exception {
+    Worker worker = start(null, javaExec, jvmArgs, forkClasspath);
+    boolean success;
+    try {
+      success = worker.compile(args, listener);
+      // let the worker exit on its own
+      worker.process.getOutputStream().close();
+      worker.process.waitFor();
+    } finally {
+      worker.destroy();
+    }
+    if (!success) {
+      throw new MojoFailureException("forked compilation failed");
+    }
+  }
+
+  private static Worker start(
+      List<Object> key, File javaExec, String[] jvmArgs, List<String> forkClasspath)
+      throws Exception {
+    Worker worker =
+        new Worker(
+            key,
+            new Fork(
+                    ForkedSbtIncrementalCompilerWorker.class.getName(),
+                    forkClasspath,
+                    jvmArgs,
+                    new String[] {},
+                    javaExec)
+                .start());
+    synchronized (idleWorkers) {
+      allWorkers.add(worker);
+    }
+    return worker;
+  }
+
+  private static Worker acquire(List<Object> key) {
+    synchronized (idleWorkers) {
+      Deque<Worker> workers = idleWorkers.get(key);
+      while (workers != null && !workers.isEmpty()) {
+        Worker worker = workers.pop();
+        if (worker.process.isAlive()) {
+          return worker;
+        }
+        allWorkers.remove(worker);
+      }
+      return null;
+    }
+  }
+
+  private static void release(Worker worker) {
+    synchronized (idleWorkers) {
+      idleWorkers.computeIfAbsent(worker.key, k -> new ArrayDeque<>()).push(worker);
+    }
+  }
+
+  private static void destroyAll() {
+    synchronized (idleWorkers) {
+      for (Worker worker : allWorkers) {
+        worker.process.destroy();
+      }
+      allWorkers.clear();
+      idleWorkers.clear();
+    }
+  }
+
+  private static final class Worker {
+    private final List<Object> key;
+    private final Process process;
+    private final ForkedSbtIncrementalCompilerProtocol.FrameWriter in;
+    private final DataInputStream out;
+    private boolean started;
+
+    Worker(List<Object> key, Process process) {
+      this.key = key;
+      this.process = process;
+      this.in = new ForkedSbtIncrementalCompilerProtocol.FrameWriter(process.getOutputStream());
+      this.out = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+    }
+
+    boolean compile(
+        ForkedSbtIncrementalCompilerMain.Args args,
+        ForkedSbtIncrementalCompilerProtocol.LogListener listener)
+        throws IOException {
+      // the output of the JVM before the first frame is only expected on the first request
+      boolean readMagic = !started;
+      started = true;
+      return ForkedSbtIncrementalCompilerProtocol.sendRequest(in, out, readMagic, args, listener);
+    }
+
+    void destroy() {
+      process.destroy();
+      synchronized (idleWorkers) {
+        allWorkers.remove(this);
+      }
+    }
+  }
+}
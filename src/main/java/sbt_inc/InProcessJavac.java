@@ -0,0 +1,259 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.*;
+import javax.lang.model.SourceVersion;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * The javac of the running JDK, used in process by zinc instead of forking a javac per compile,
+ * with pooled file managers: the jars of the classpath opened by a compile stay open for the next
+ * ones.
+ *
+ * <p>zinc asks for a file manager, wraps it, then starts the task with the javac options. The file
+ * manager given to zinc is a proxy bound by {@link #getTask} to a pooled file manager created with
+ * the same options (eg -encoding, which a file manager keeps), and which read none of the jars of
+ * the classpath since they changed. Closing the proxy gives the file manager back to the pool.
+ */
+final class InProcessJavac implements JavaCompiler {
+
+  // options whose value is set on the file manager by each task, so not part of the pool key
+  private static final Set<String> PATH_OPTIONS =
+      new HashSet<>(
+          Arrays.asList(
+              "-classpath",
+              "-cp",
+              "--class-path",
+              "-bootclasspath",
+              "--boot-class-path",
+              "-sourcepath",
+              "--source-path",
+              "-processorpath",
+              "--processor-path",
+              "-d",
+              "-s",
+              "-h"));
+
+  private static final Set<String> CLASSPATH_OPTIONS =
+      new HashSet<>(
+          Arrays.asList(
+              "-classpath", "-cp", "--class-path", "-bootclasspath", "--boot-class-path"));
+
+  private final JavaCompiler javac;
+  private final Deque<PooledFileManager> idle = new ArrayDeque<>();
+  // the proxy given to zinc by the last getStandardFileManager of the thread, bound by getTask
+  private final ThreadLocal<FileManagerHandler> current = new ThreadLocal<>();
+
+  private InProcessJavac(JavaCompiler javac) {
+    this.javac = javac;
+  }
+
+  /**
+   * Returns the in process javac when javaHome is the JDK running this JVM and it has a javac, else
+   * empty, to fork the javac of javaHome.
+   */
+  static Optional<JavaCompiler> forJavaHome(File javaHome) {
+    if (javaHome == null || !isRunningJavaHome(javaHome)) {
+      return Optional.empty();
+    }
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    return javac == null ? Optional.empty() : Optional.of(new InProcessJavac(javac));
+  }
+
+  private static boolean isRunningJavaHome(File javaHome) {
+    String runningJavaHome = System.getProperty("java.home");
+    if (runningJavaHome == null) {
+      return false;
+    }
+    try {
+      File canonical = javaHome.getCanonicalFile();
+      File running = new File(runningJavaHome).getCanonicalFile();
+      // the java.home of a JDK 8 is its jre directory
+      return canonical.equals(running)
+          || (running.getName().equals("jre") && canonical.equals(running.getParentFile()));
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public StandardJavaFileManager getStandardFileManager(
+      DiagnosticListener<? super JavaFileObject> diagnosticListener,
+      Locale locale,
+      Charset charset) {
+    FileManagerHandler handler = new FileManagerHandler();
+    current.set(handler);
+    return (StandardJavaFileManager)
+        Proxy.newProxyInstance(
+            InProcessJavac.class.getClassLoader(),
+            new Class<?>[] {StandardJavaFileManager.class},
+            handler);
+  }
+
+  @Override
+  public CompilationTask getTask(
+      Writer out,
+      JavaFileManager fileManager,
+      DiagnosticListener<? super JavaFileObject> diagnosticListener,
+      Iterable<String> options,
+      Iterable<String> classes,
+      Iterable<? extends JavaFileObject> compilationUnits) {
+    FileManagerHandler handler = current.get();
+    current.remove();
+    if (handler != null) {
+      handler.bind(options);
+    }
+    return javac.getTask(out, fileManager, diagnosticListener, options, classes, compilationUnits);
+  }
+
+  @Override
+  public int run(InputStream in, OutputStream out, OutputStream err, String... arguments) {
+    return javac.run(in, out, err, arguments);
+  }
+
+  @Override
+  public Set<SourceVersion> getSourceVersions() {
+    return javac.getSourceVersions();
+  }
+
+  @Override
+  public int isSupportedOption(String option) {
+    return javac.isSupportedOption(option);
+  }
+
+  private synchronized PooledFileManager checkout(List<String> key, List<File> jars)
+      throws IOException {
+    for (Iterator<PooledFileManager> it = idle.iterator(); it.hasNext(); ) {
+      PooledFileManager pooled = it.next();
+      if (pooled.key.equals(key)) {
+        it.remove();
+        if (pooled.upToDate(jars)) {
+          return pooled;
+        }
+        pooled.fileManager.close();
+      }
+    }
+    PooledFileManager pooled =
+        new PooledFileManager(key, javac.getStandardFileManager(null, null, null));
+    pooled.upToDate(jars);
+    return pooled;
+  }
+
+  private synchronized void checkin(PooledFileManager pooled) {
+    idle.push(pooled);
+  }
+
+  private static final class PooledFileManager {
+    final List<String> key;
+    final StandardJavaFileManager fileManager;
+    // size and last modified of the jars read by the file manager
+    private final Map<File, List<Long>> jarStamps = new HashMap<>();
+
+    PooledFileManager(List<String> key, StandardJavaFileManager fileManager) {
+      this.key = key;
+      this.fileManager = fileManager;
+    }
+
+    // false if a jar read before changed, else records the new jars
+    boolean upToDate(List<File> jars) {
+      for (File jar : jars) {
+        List<Long> stamp = Arrays.asList(jar.length(), jar.lastModified());
+        List<Long> previous = jarStamps.putIfAbsent(jar, stamp);
+        if (previous != null && !previous.equals(stamp)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private final class FileManagerHandler implements InvocationHandler {
+    private PooledFileManager pooled;
+    private boolean closed;
+
+    synchronized void bind(Iterable<String> options) {
+      if (pooled != null || closed) {
+        return;
+      }
+      List<String> key = new ArrayList<>();
+      List<File> jars = new ArrayList<>();
+      Iterator<String> it = options == null ? Collections.emptyIterator() : options.iterator();
+      while (it.hasNext()) {
+        String option = it.next();
+        if (PATH_OPTIONS.contains(option) && it.hasNext()) {
+          String value = it.next();
+          if (CLASSPATH_OPTIONS.contains(option)) {
+            for (String entry : value.split(File.pathSeparator)) {
+              if (entry.endsWith(".jar")) {
+                jars.add(new File(entry));
+              }
+            }
+          }
+        } else {
+          key.add(option);
+        }
+      }
+      try {
+        pooled = checkout(key, jars);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "close":
+          if (!closed) {
+            closed = true;
+            if (pooled != null && pooled.key == null) {
+              pooled.fileManager.close();
+            } else if (pooled != null) {
+              pooled.fileManager.flush();
+              checkin(pooled);
+            }
+          }
+          return null;
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "equals":
+          return proxy == args[0];
+        case "toString":
+          return "InProcessJavac file manager " + pooled;
+        default:
+          break;
+      }
+      if (closed) {
+        throw new IllegalStateException("file manager closed");
+      }
+      // called before the task starts (zinc doesn't), the file manager is not pooled
+      if (pooled == null) {
+        pooled = new PooledFileManager(null, javac.getStandardFileManager(null, null, null));
+      }
+      try {
+        return method.invoke(pooled.fileManager, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -5,7 +5,9 @@
 package sbt_inc;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import sbt.internal.inc.*;
 import xsbti.Logger;
 import xsbti.VirtualFile;
@@ -14,24 +16,54 @@ import xsbti.compile.*;
 public final class InProcessSbtIncrementalCompiler implements SbtIncrementalCompiler {
   private final Compilers compilers;
   private final AnalysisStore analysisStore;
+  private final File sourceStampsFile;
+  private final JarFingerprints jarFingerprints;
+  private final File invalidationReportFile;
+  private final File incrementalHistoryFile;
+  private final File phaseTimingsFile;
+  private final File diagnosticsFile;
+  private final boolean adaptiveRecompile;
+  private final int maxErrors;
+  private final int maxLoggedWarnings;
   private final Setup setup;
 
   private final IncrementalCompiler compiler;
   private final CompileOrder compileOrder;
+  private final Optional<File> earlyOutputJar;
   private final Logger sbtLogger;
 
   public InProcessSbtIncrementalCompiler(
       Compilers compilers,
       AnalysisStore analysisStore,
+      File sourceStampsFile,
+      JarFingerprints jarFingerprints,
+      File invalidationReportFile,
+      File incrementalHistoryFile,
+      File phaseTimingsFile,
+      File diagnosticsFile,
+      boolean adaptiveRecompile,
+      int maxErrors,
+      int maxLoggedWarnings,
       Setup setup,
       IncrementalCompiler compiler,
       CompileOrder compileOrder,
+      Optional<File> earlyOutputJar,
       Logger sbtLogger) {
     this.compilers = compilers;
     this.analysisStore = analysisStore;
+    this.sourceStampsFile = sourceStampsFile;
+    this.jarFingerprints = jarFingerprints;
+    this.invalidationReportFile = invalidationReportFile;
+    this.incrementalHistoryFile = incrementalHistoryFile;
+    this.phaseTimingsFile = phaseTimingsFile;
+    this.diagnosticsFile = diagnosticsFile;
+    this.adaptiveRecompile = adaptiveRecompile;
+    this.maxErrors = maxErrors;
+    this.maxLoggedWarnings = maxLoggedWarnings;
     this.setup = setup;
     this.compiler = compiler;
     this.compileOrder = compileOrder;
+    this.earlyOutputJar = earlyOutputJar;
     this.sbtLogger = sbtLogger;
   }
 
@@ -42,37 +74,187 @@ public final class InProcessSbtIncrementalCompiler implements SbtIncrementalComp
       File classesDirectory,
       Collection<String> scalacOptions,
       Collection<String> javacOptions) {
+    compile(classpathElements, sources, classesDirectory, scalacOptions, javacOptions, () -> {});
+  }
+
+  @Override
+  public void compile(
+      Collection<File> classpathElements,
+      Collection<File> sources,
+      File classesDirectory,
+      Collection<String> scalacOptions,
+      Collection<String> javacOptions,
+      Runnable onEarlyOutput) {
+    compile(
+        classpathElements,
+        sources,
+        classesDirectory,
+        scalacOptions,
+        javacOptions,
+        onEarlyOutput,
+        null);
+  }
+
+  @Override
+  public void compile(
+      Collection<File> classpathElements,
+      Collection<File> sources,
+      File classesDirectory,
+      Collection<String> scalacOptions,
+      Collection<String> javacOptions,
+      Collection<File> changedFiles) {
+    compile(
+        classpathElements,
+        sources,
+        classesDirectory,
+        scalacOptions,
+        javacOptions,
+        () -> {},
+        changedFiles);
+  }
+
+  private void compile(
+      Collection<File> classpathElements,
+      Collection<File> sources,
+      File classesDirectory,
+      Collection<String> scalacOptions,
+      Collection<String> javacOptions,
+      Runnable onEarlyOutput,
+      Collection<File> changedFiles) {
 
     // incremental compiler needs to add the output dir in the classpath for Java + Scala
     Collection<File> fullClasspathElements = new ArrayList<>(classpathElements);
     fullClasspathElements.add(classesDirectory);
 
+    // with pipelining, scalac writes the pickles of the Scala and Java sources after the typer
+    List<String> fullScalacOptions = new ArrayList<>(scalacOptions);
+    if (earlyOutputJar.isPresent()) {
+      earlyOutputJar.get().getParentFile().mkdirs();
+      fullScalacOptions.add("-Ypickle-java");
+      fullScalacOptions.add("-Ypickle-write");
+      fullScalacOptions.add(earlyOutputJar.get().getPath());
+    }
+
+    VirtualFile[] sourceFiles =
+        sources.stream()
+            .map(file -> new PlainVirtualFile(file.toPath()))
+            .toArray(VirtualFile[]::new);
+    long stampStart = System.nanoTime();
+    Set<java.nio.file.Path> changedPaths = null;
+    if (changedFiles != null) {
+      changedPaths = new HashSet<>();
+      for (File changedFile : changedFiles) {
+        changedPaths.add(changedFile.toPath());
+      }
+    }
+    SourceStamps stamps =
+        SourceStamps.compute(sourceStampsFile, sourceFiles, changedPaths, jarFingerprints);
+    sbtLogger.debug(
+        () ->
+            String.format(
+                "stamped %d sources (%d hashed) in %.1f ms",
+                sourceFiles.length, stamps.hashed(), (System.nanoTime() - stampStart) / 1e6));
+
     CompileOptions options =
         CompileOptions.of(
             fullClasspathElements.stream()
                 .map(file -> new PlainVirtualFile(file.toPath()))
                 .toArray(VirtualFile[]::new), // classpath
-            sources.stream()
-                .map(file -> new PlainVirtualFile(file.toPath()))
-                .toArray(VirtualFile[]::new), // sources
+            sourceFiles, // sources
             classesDirectory.toPath(), //
-            scalacOptions.toArray(new String[] {}), // scalacOptions
+            fullScalacOptions.toArray(new String[] {}), // scalacOptions
             javacOptions.toArray(new String[] {}), // javacOptions
-            100, // maxErrors
+            maxErrors, // maxErrors
             pos -> pos, // sourcePositionMappers
             compileOrder, // order
             Optional.empty(), // temporaryClassesDirectory
             Optional.empty(), // _converter
-            Optional.empty(), // _stamper
-            Optional.empty() // _earlyOutput
+            Optional.of(stamps), // _stamper
+            earlyOutputJar.map(jar -> CompileOutput.apply(jar.toPath())) // _earlyOutput
             );
 
-    Inputs inputs = Inputs.of(compilers, options, setup, previousResult());
+    // run onEarlyOutput once, when the pickles are written by the first compilation cycle
+    AtomicBoolean earlyOutputDone = new AtomicBoolean();
+    PhaseTimings progress =
+        new PhaseTimings(phaseTimingsFile, sbtLogger) {
+          @Override
+          public void afterEarlyOutput(boolean success) {
+            if (success && earlyOutputDone.compareAndSet(false, true)) {
+              onEarlyOutput.run();
+            }
+          }
+        };
 
-    CompileResult newResult = compiler.compile(inputs, sbtLogger);
+    DiagnosticsReporter reporter =
+        new DiagnosticsReporter(diagnosticsFile, maxErrors, maxLoggedWarnings, sbtLogger);
+
+    // record the invalidation cycles, and tune the options from the previous ones
+    InvalidationReport report = new InvalidationReport(invalidationReportFile, sourceFiles.length);
+    IncrementalHistory history = IncrementalHistory.load(incrementalHistoryFile);
+    IncOptions incOptions = setup.incrementalCompilerOptions();
+    if (adaptiveRecompile) {
+      IncOptions tuned = history.tune(incOptions);
+      if (tuned != incOptions) {
+        sbtLogger.debug(
+            () ->
+                String.format(
+                    "adaptive recompilation: recompileAllFraction=%.2f, transitiveStep=%d",
+                    tuned.recompileAllFraction(), tuned.transitiveStep()));
+      }
+      incOptions = tuned;
+    }
+    incOptions =
+        incOptions.withExternalHooks(incOptions.externalHooks().withInvalidationProfiler(report));
+
+    Compilers timedCompilers =
+        compilers.withJavaTools(
+            sbt.internal.inc.javac.JavaTools.apply(
+                progress.timed(compilers.javaTools().javac()), compilers.javaTools().javadoc()));
+    Inputs inputs =
+        Inputs.of(
+            timedCompilers,
+            options,
+            setup
+                .withProgress(progress)
+                .withReporter(reporter)
+                .withIncrementalCompilerOptions(incOptions),
+            previousResult());
+
+    CompileResult newResult;
+    try {
+      newResult = CompilerClassLoaders.whileCompiling(() -> compiler.compile(inputs, sbtLogger));
+    } finally {
+      jarFingerprints.save();
+      reporter.close();
+      writeReport(report, history);
+      try {
+        progress.finish();
+      } catch (IOException e) {
+        sbtLogger.warn(() -> "failed to write the phase timings " + phaseTimingsFile);
+      }
+    }
     analysisStore.set(AnalysisContents.create(newResult.analysis(), newResult.setup()));
   }
 
+  private void writeReport(InvalidationReport report, IncrementalHistory history) {
+    if (report.isEmpty()) {
+      // nothing was recompiled, keep the report of the last compilation
+      return;
+    }
+    try {
+      report.write();
+      report.addTo(history);
+      history.save();
+      sbtLogger.debug(
+          () ->
+              String.format(
+                  "%d invalidation cycles recompiled %d sources, see %s",
+                  report.cycles(), report.recompiledSources(), invalidationReportFile));
+    } catch (IOException e) {
+      sbtLogger.warn(() -> "failed to write the invalidation report " + invalidationReportFile);
+    }
+  }
+
   private PreviousResult previousResult() {
     Optional<AnalysisContents> analysisContents = analysisStore.get();
     if (analysisContents.isPresent()) {
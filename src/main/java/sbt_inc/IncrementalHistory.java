@@ -0,0 +1,185 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import xsbti.compile.IncOptions;
+
+/**
+ * Invalidation cycles of the last incremental compilations of a module, as the number of sources
+ * recompiled and the time spent by each cycle, used to tune zinc's {@link IncOptions} so that the
+ * compilations whose cycles cascade switch to a full recompilation as soon as continuing would cost
+ * more than compiling everything.
+ */
+final class IncrementalHistory {
+
+  private static final int FORMAT_VERSION = 1;
+
+  static final int MAX_RUNS = 10;
+
+  // below this, a single invalidated class of a large module would trigger a full recompilation
+  private static final double MIN_RECOMPILE_ALL_FRACTION = 0.05;
+
+  static final class Run {
+    final int totalSources;
+    final int[] sources;
+    final long[] nanos;
+
+    Run(int totalSources, int[] sources, long[] nanos) {
+      this.totalSources = totalSources;
+      this.sources = sources;
+      this.nanos = nanos;
+    }
+
+    boolean isFull() {
+      return sources.length > 0 && sources[0] >= totalSources;
+    }
+  }
+
+  private final File file;
+  private final List<Run> runs;
+
+  private IncrementalHistory(File file, List<Run> runs) {
+    this.file = file;
+    this.runs = runs;
+  }
+
+  /** History of the compilation whose analysis is cacheFile. */
+  static File historyFile(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-cycles");
+  }
+
+  static IncrementalHistory load(File file) {
+    List<Run> runs = new ArrayList<>();
+    if (file.isFile()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+        if (in.readInt() == FORMAT_VERSION) {
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            int totalSources = in.readInt();
+            int[] sources = new int[in.readInt()];
+            long[] nanos = new long[sources.length];
+            for (int j = 0; j < sources.length; j++) {
+              sources[j] = in.readInt();
+              nanos[j] = in.readLong();
+            }
+            runs.add(new Run(totalSources, sources, nanos));
+          }
+        }
+      } catch (IOException e) {
+        // corrupted or truncated: start a new history
+        runs.clear();
+      }
+    }
+    return new IncrementalHistory(file, runs);
+  }
+
+  List<Run> runs() {
+    return runs;
+  }
+
+  /** Records a compilation, forgetting the oldest ones beyond {@link #MAX_RUNS}. */
+  void add(int totalSources, int[] sources, long[] nanos) {
+    if (sources.length == 0) {
+      return;
+    }
+    runs.add(new Run(totalSources, sources, nanos));
+    while (runs.size() > MAX_RUNS) {
+      runs.remove(0);
+    }
+  }
+
+  void save() throws IOException {
+    file.getParentFile().mkdirs();
+    File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+      out.writeInt(FORMAT_VERSION);
+      out.writeInt(runs.size());
+      for (Run run : runs) {
+        out.writeInt(run.totalSources);
+        out.writeInt(run.sources.length);
+        for (int j = 0; j < run.sources.length; j++) {
+          out.writeInt(run.sources[j]);
+          out.writeLong(run.nanos[j]);
+        }
+      }
+    }
+    Files.move(
+        tmpFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns the options tuned from the history. A clean compilation is estimated from the last full
+   * compilation (or else from the cost per source of all the cycles). For each incremental
+   * compilation, the first cycle after the initial one from which the remaining cycles cost more
+   * than a clean compilation is where zinc should have recompiled everything: recompileAllFraction
+   * is lowered below the fraction of sources invalidated by that cycle, and transitiveStep to its
+   * index, so that zinc gives up on small steps sooner. The options are returned unchanged when no
+   * compilation cascaded.
+   */
+  IncOptions tune(IncOptions options) {
+    double nanosPerSource = nanosPerSource();
+    if (Double.isNaN(nanosPerSource)) {
+      return options;
+    }
+    double fraction = options.recompileAllFraction();
+    int transitiveStep = options.transitiveStep();
+    boolean tuned = false;
+    for (Run run : runs) {
+      if (run.isFull() || run.totalSources == 0) {
+        continue;
+      }
+      double cleanNanos = nanosPerSource * run.totalSources;
+      // the first cycle compiles the changed sources, zinc can only give up on the next ones
+      long remainingNanos = 0;
+      for (int i = 1; i < run.nanos.length; i++) {
+        remainingNanos += run.nanos[i];
+      }
+      for (int i = 1; i < run.sources.length; i++) {
+        if (remainingNanos > cleanNanos) {
+          fraction = Math.min(fraction, 0.9 * run.sources[i] / run.totalSources);
+          transitiveStep = Math.min(transitiveStep, i);
+          tuned = true;
+          break;
+        }
+        remainingNanos -= run.nanos[i];
+      }
+    }
+    if (!tuned) {
+      return options;
+    }
+    return options
+        .withRecompileAllFraction(Math.max(MIN_RECOMPILE_ALL_FRACTION, fraction))
+        .withTransitiveStep(transitiveStep);
+  }
+
+  // cost of compiling one source in a clean compilation, NaN if unknown
+  private double nanosPerSource() {
+    for (int i = runs.size() - 1; i >= 0; i--) {
+      Run run = runs.get(i);
+      if (run.isFull()) {
+        return (double) run.nanos[0] / run.sources[0];
+      }
+    }
+    long sources = 0;
+    long nanos = 0;
+    for (Run run : runs) {
+      for (int j = 0; j < run.sources.length; j++) {
+        sources += run.sources[j];
+        nanos += run.nanos[j];
+      }
+    }
+    return sources == 0 ? Double.NaN : (double) nanos / sources;
+  }
+}
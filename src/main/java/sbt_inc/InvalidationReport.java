@@ -0,0 +1,248 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import xsbti.VirtualFileRef;
+import xsbti.compile.APIChange;
+import xsbti.compile.InitialChanges;
+import xsbti.compile.InvalidationProfiler;
+import xsbti.compile.RunProfiler;
+
+/**
+ * Records the invalidation cycles of one incremental compilation, as reported by zinc: the initial
+ * changes, then for each cycle the invalidated classes and sources, the recompiled classes, the
+ * invalidations left for the next cycle and the time spent. The record is written as JSON to the
+ * report file, to see why a change cascaded into many recompilations, and appended to the {@link
+ * IncrementalHistory} of the compilation.
+ */
+final class InvalidationReport implements InvalidationProfiler, RunProfiler {
+
+  private static final class Cycle {
+    final String[] invalidatedClasses;
+    final String[] invalidatedPackageObjects;
+    final String[] invalidatedSources;
+    final int recompiledClasses;
+    final String[] nextInvalidations;
+    final boolean incremental;
+    final long startNanos;
+    long endNanos;
+    long compileNanos;
+
+    Cycle(
+        String[] invalidatedClasses,
+        String[] invalidatedPackageObjects,
+        String[] invalidatedSources,
+        int recompiledClasses,
+        String[] nextInvalidations,
+        boolean incremental,
+        long startNanos,
+        long endNanos) {
+      this.invalidatedClasses = invalidatedClasses;
+      this.invalidatedPackageObjects = invalidatedPackageObjects;
+      this.invalidatedSources = invalidatedSources;
+      this.recompiledClasses = recompiledClasses;
+      this.nextInvalidations = nextInvalidations;
+      this.incremental = incremental;
+      this.startNanos = startNanos;
+      this.endNanos = endNanos;
+    }
+
+    long nanos() {
+      return endNanos - startNanos;
+    }
+  }
+
+  private final File reportFile;
+  private final int totalSources;
+  private final long start = System.nanoTime();
+
+  private InitialChanges initialChanges;
+  private final List<String> events = new ArrayList<>();
+  private final List<Cycle> cycles = new ArrayList<>();
+  private long firstCycleStart = start;
+
+  InvalidationReport(File reportFile, int totalSources) {
+    this.reportFile = reportFile;
+    this.totalSources = totalSources;
+  }
+
+  /** Report of the compilation whose analysis is cacheFile. */
+  static File reportFile(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-invalidations.json");
+  }
+
+  boolean isEmpty() {
+    return cycles.isEmpty();
+  }
+
+  int cycles() {
+    return cycles.size();
+  }
+
+  int recompiledSources() {
+    return cycles.stream().mapToInt(cycle -> cycle.invalidatedSources.length).sum();
+  }
+
+  @Override
+  public RunProfiler profileRun() {
+    return this;
+  }
+
+  @Override
+  public void timeCompilation(long startNanos, long durationNanos) {
+    // zinc registers a cycle when scalac completes, before javac and the timing of the compilation
+    if (!cycles.isEmpty()) {
+      Cycle cycle = cycles.get(cycles.size() - 1);
+      cycle.compileNanos += durationNanos;
+      cycle.endNanos = Math.max(cycle.endNanos, startNanos + durationNanos);
+    }
+  }
+
+  @Override
+  public void registerInitial(InitialChanges changes) {
+    initialChanges = changes;
+    firstCycleStart = System.nanoTime();
+  }
+
+  @Override
+  public void registerEvent(String kind, String[] inputs, String[] outputs, String reason) {
+    events.add(
+        kind
+            + ": "
+            + String.join(", ", inputs)
+            + " -> "
+            + String.join(", ", outputs)
+            + " ("
+            + reason
+            + ")");
+  }
+
+  @Override
+  public void registerCycle(
+      String[] invalidatedClasses,
+      String[] invalidatedPackageObjects,
+      VirtualFileRef[] initialSources,
+      VirtualFileRef[] invalidatedSources,
+      String[] recompiledClasses,
+      APIChange[] changesAfterRecompilation,
+      String[] nextInvalidations,
+      boolean shouldCompileIncrementally) {
+    long now = System.nanoTime();
+    cycles.add(
+        new Cycle(
+            invalidatedClasses,
+            invalidatedPackageObjects,
+            Arrays.stream(invalidatedSources).map(VirtualFileRef::id).toArray(String[]::new),
+            recompiledClasses.length,
+            nextInvalidations,
+            shouldCompileIncrementally,
+            cycles.isEmpty() ? firstCycleStart : cycles.get(cycles.size() - 1).endNanos,
+            now));
+  }
+
+  @Override
+  public void registerRun() {}
+
+  /** Appends the cycles to the history, as (recompiled sources, time) pairs. */
+  void addTo(IncrementalHistory history) {
+    int[] sources = cycles.stream().mapToInt(cycle -> cycle.invalidatedSources.length).toArray();
+    long[] nanos = cycles.stream().mapToLong(Cycle::nanos).toArray();
+    history.add(totalSources, sources, nanos);
+  }
+
+  /** Writes the report, replacing the one of the previous compilation. */
+  void write() throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"totalSources\": ").append(totalSources).append(",\n");
+    json.append("  \"totalMs\": ").append(millis(System.nanoTime() - start)).append(",\n");
+    json.append("  \"initialChanges\": {");
+    if (initialChanges != null) {
+      json.append("\n");
+      field(json, "    ", "addedSources", ids(initialChanges.getInternalSrc().getAdded()), true);
+      field(
+          json, "    ", "removedSources", ids(initialChanges.getInternalSrc().getRemoved()), true);
+      field(
+          json, "    ", "changedSources", ids(initialChanges.getInternalSrc().getChanged()), true);
+      field(json, "    ", "removedProducts", ids(initialChanges.getRemovedProducts()), true);
+      field(json, "    ", "changedLibraries", ids(initialChanges.getLibraryDeps()), true);
+      field(
+          json,
+          "    ",
+          "changedUpstreamClasses",
+          Arrays.stream(initialChanges.getExternal())
+              .map(APIChange::getModifiedClass)
+              .sorted()
+              .toArray(String[]::new),
+          false);
+      json.append("  ");
+    }
+    json.append("},\n");
+    json.append("  \"events\": ");
+    array(json, events.toArray(new String[0]));
+    json.append(",\n");
+    json.append("  \"cycles\": [");
+    for (int i = 0; i < cycles.size(); i++) {
+      Cycle cycle = cycles.get(i);
+      json.append(i == 0 ? "\n" : ",\n").append("    {\n");
+      json.append("      \"cycle\": ").append(i + 1).append(",\n");
+      json.append("      \"ms\": ").append(millis(cycle.nanos())).append(",\n");
+      json.append("      \"compileMs\": ").append(millis(cycle.compileNanos)).append(",\n");
+      json.append("      \"incremental\": ").append(cycle.incremental).append(",\n");
+      json.append("      \"recompiledClasses\": ").append(cycle.recompiledClasses).append(",\n");
+      field(json, "      ", "invalidatedClasses", sorted(cycle.invalidatedClasses), true);
+      field(
+          json,
+          "      ",
+          "invalidatedPackageObjects",
+          sorted(cycle.invalidatedPackageObjects),
+          true);
+      field(json, "      ", "invalidatedSources", sorted(cycle.invalidatedSources), true);
+      field(json, "      ", "nextInvalidations", sorted(cycle.nextInvalidations), false);
+      json.append("    }");
+    }
+    json.append(cycles.isEmpty() ? "]\n" : "\n  ]\n");
+    json.append("}\n");
+
+    reportFile.getParentFile().mkdirs();
+    File tmpFile = File.createTempFile(reportFile.getName(), ".tmp", reportFile.getParentFile());
+    Files.write(tmpFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    Files.move(
+        tmpFile.toPath(),
+        reportFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static String[] ids(Set<VirtualFileRef> files) {
+    return files.stream().map(VirtualFileRef::id).sorted().toArray(String[]::new);
+  }
+
+  private static String[] sorted(String[] values) {
+    return Arrays.stream(values).sorted().toArray(String[]::new);
+  }
+
+  private static void field(
+      StringBuilder json, String indent, String name, String[] values, boolean more) {
+    json.append(indent).append('"').append(name).append("\": ");
+    array(json, values);
+    json.append(more ? ",\n" : "\n");
+  }
+
+  private static void array(StringBuilder json, String[] values) {
+    json.append(Arrays.stream(values).map(Json::quote).collect(Collectors.joining(", ", "[", "]")));
+  }
+}
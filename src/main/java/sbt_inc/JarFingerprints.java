@@ -0,0 +1,178 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import sbt.internal.inc.FarmHash;
+
+/**
+ * Persistent cache of content fingerprints of the jars of the classpaths, shared by all the builds
+ * of the machine, keyed by the path, size and last modification time of the jars. The fingerprint
+ * of a jar is a hash of the names, sizes and CRC-32 (the per-class hashes) of its entries, read
+ * from the zip central directory: a jar rebuilt with the same classes, even with other timestamps,
+ * has the same fingerprint, so its dependents are not invalidated. The content stamps of the class
+ * files of the classpaths are cached the same way.
+ */
+final class JarFingerprints {
+
+  private static final int FORMAT_VERSION = 1;
+
+  private static final Map<File, JarFingerprints> instances = new ConcurrentHashMap<>();
+
+  private static final class Entry {
+    final long size;
+    final long lastModified;
+    final String fingerprint;
+
+    Entry(long size, long lastModified, String fingerprint) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.fingerprint = fingerprint;
+    }
+  }
+
+  private final File file;
+  private final Map<String, Entry> entries;
+  private volatile boolean dirty;
+
+  private JarFingerprints(File file) {
+    this.file = file;
+    this.entries = new ConcurrentHashMap<>(read(file));
+  }
+
+  /** Returns the cache stored in the file, loaded once per JVM. */
+  static JarFingerprints of(File file) {
+    return instances.computeIfAbsent(file.getAbsoluteFile(), JarFingerprints::new);
+  }
+
+  /** Returns the fingerprint of the jar, computing it if it changed since last cached. */
+  String fingerprint(Path jar) throws IOException {
+    return cached(jar, JarFingerprints::computeFingerprint);
+  }
+
+  /**
+   * Returns the zinc stamp of the content of the class file, eg of an upstream module's classes
+   * directory, hashing it if it changed since last cached.
+   */
+  String classFileStamp(Path classFile) throws IOException {
+    return cached(classFile, path -> FarmHash.ofPath(path).writeStamp());
+  }
+
+  private interface Fingerprinter {
+    String compute(Path path) throws IOException;
+  }
+
+  private String cached(Path path, Fingerprinter fingerprinter) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    String key = path.toAbsolutePath().toString();
+    Entry entry = entries.get(key);
+    if (entry == null
+        || entry.size != attributes.size()
+        || entry.lastModified != attributes.lastModifiedTime().toMillis()) {
+      entry =
+          new Entry(
+              attributes.size(),
+              attributes.lastModifiedTime().toMillis(),
+              fingerprinter.compute(path));
+      entries.put(key, entry);
+      dirty = true;
+    }
+    return entry.fingerprint;
+  }
+
+  /** Writes the cache if fingerprints were computed since it was loaded or last saved. */
+  synchronized void save() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    try {
+      file.getParentFile().mkdirs();
+      File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+        // forget the files that were deleted
+        Map<String, Entry> snapshot = new HashMap<>(entries);
+        snapshot.keySet().removeIf(path -> !new File(path).isFile());
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue().size);
+          out.writeLong(entry.getValue().lastModified);
+          out.writeUTF(entry.getValue().fingerprint);
+        }
+      }
+      Files.move(
+          tmpFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("failed to write jar fingerprints " + file, e);
+    }
+  }
+
+  private static String computeFingerprint(Path jar) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    try (ZipFile zip = new ZipFile(jar.toFile())) {
+      List<ZipEntry> zipEntries = new ArrayList<>();
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+        ZipEntry zipEntry = e.nextElement();
+        if (!zipEntry.isDirectory()) {
+          zipEntries.add(zipEntry);
+        }
+      }
+      zipEntries.sort(Comparator.comparing(ZipEntry::getName));
+      for (ZipEntry zipEntry : zipEntries) {
+        digest.update(zipEntry.getName().getBytes(StandardCharsets.UTF_8));
+        digest.update(
+            String.format(":%x:%x\n", zipEntry.getSize(), zipEntry.getCrc())
+                .getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static Map<String, Entry> read(File file) {
+    Map<String, Entry> entries = new HashMap<>();
+    if (file.isFile()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+        if (in.readInt() == FORMAT_VERSION) {
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF()));
+          }
+        }
+      } catch (IOException e) {
+        // corrupted or truncated: compute the fingerprints again
+        entries.clear();
+      }
+    }
+    return entries;
+  }
+}
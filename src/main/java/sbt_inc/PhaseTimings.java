@@ -0,0 +1,217 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import xsbti.Logger;
+import xsbti.Reporter;
+import xsbti.VirtualFile;
+import xsbti.compile.CompileProgress;
+import xsbti.compile.IncToolOptions;
+import xsbti.compile.JavaCompiler;
+import xsbti.compile.Output;
+
+/**
+ * {@link CompileProgress} measuring the time spent by one compilation in each scalac phase (from
+ * the first unit of the phase to the next phase), in javac (when the compiler is wrapped by {@link
+ * #timed(JavaCompiler)}) and on each compilation unit. Long compilations log their progress with an
+ * estimated time left, and the breakdown is written as JSON to the report file when the compilation
+ * is finished.
+ */
+class PhaseTimings implements CompileProgress {
+
+  static final String JAVAC = "javac";
+
+  private static final long LIVE_PROGRESS_AFTER_NANOS = TimeUnit.SECONDS.toNanos(10);
+  private static final long LIVE_PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+  private static final int SLOWEST_UNITS = 20;
+
+  private final File reportFile;
+  private final Logger sbtLogger;
+  private final long start = System.nanoTime();
+
+  // phases in their order of first appearance
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+  private final Map<String, Long> unitNanos = new HashMap<>();
+  private String currentPhase;
+  private long phaseStart;
+  private String currentUnit;
+  private long unitStart;
+
+  // progress of the current scalac run, a cycle starting a new run
+  private long runStart;
+  private int lastCurrent = Integer.MAX_VALUE;
+  private long lastLiveProgress;
+
+  PhaseTimings(File reportFile, Logger sbtLogger) {
+    this.reportFile = reportFile;
+    this.sbtLogger = sbtLogger;
+  }
+
+  /** Report of the compilation whose analysis is cacheFile. */
+  static File reportFile(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-phases.json");
+  }
+
+  @Override
+  public synchronized void startUnit(String phase, String unitPath) {
+    long now = System.nanoTime();
+    enterPhase(phase, now);
+    endUnit(now);
+    if (!unitPath.isEmpty()) {
+      currentUnit = unitPath;
+      unitStart = now;
+    }
+  }
+
+  @Override
+  public synchronized boolean advance(int current, int total, String prevPhase, String nextPhase) {
+    long now = System.nanoTime();
+    // some phases (the backend) don't report their units
+    enterPhase(prevPhase, now);
+    if (current < lastCurrent) {
+      runStart = now;
+      lastLiveProgress = now;
+    }
+    lastCurrent = current;
+    if (current > 0
+        && current < total
+        && now - runStart > LIVE_PROGRESS_AFTER_NANOS
+        && now - lastLiveProgress > LIVE_PROGRESS_INTERVAL_NANOS) {
+      lastLiveProgress = now;
+      long elapsed = now - runStart;
+      long left = elapsed * (total - current) / current;
+      sbtLogger.info(
+          () ->
+              String.format(
+                  "compiling: %d%% (%s), about %d s left",
+                  100L * current / total, prevPhase, TimeUnit.NANOSECONDS.toSeconds(left)));
+    }
+    return true;
+  }
+
+  /** Returns javac, timed as a phase of this compilation. */
+  JavaCompiler timed(JavaCompiler javac) {
+    return new JavaCompiler() {
+      @Override
+      public boolean run(
+          VirtualFile[] sources,
+          String[] options,
+          Output output,
+          IncToolOptions incToolOptions,
+          Reporter reporter,
+          Logger log) {
+        synchronized (PhaseTimings.this) {
+          enterPhase(JAVAC, System.nanoTime());
+        }
+        try {
+          return javac.run(sources, options, output, incToolOptions, reporter, log);
+        } finally {
+          synchronized (PhaseTimings.this) {
+            exitPhase(System.nanoTime());
+          }
+        }
+      }
+
+      @Override
+      public boolean supportsDirectToJar() {
+        return javac.supportsDirectToJar();
+      }
+    };
+  }
+
+  private void enterPhase(String phase, long now) {
+    if (!phase.equals(currentPhase)) {
+      exitPhase(now);
+      currentPhase = phase;
+      phaseStart = now;
+    }
+  }
+
+  private void exitPhase(long now) {
+    endUnit(now);
+    if (currentPhase != null) {
+      phaseNanos.merge(currentPhase, now - phaseStart, Long::sum);
+      currentPhase = null;
+    }
+  }
+
+  private void endUnit(long now) {
+    if (currentUnit != null) {
+      unitNanos.merge(currentUnit, now - unitStart, Long::sum);
+      currentUnit = null;
+    }
+  }
+
+  /**
+   * Ends the compilation, logging the breakdown and writing it to the report file, unless nothing
+   * was compiled.
+   */
+  synchronized void finish() throws IOException {
+    long now = System.nanoTime();
+    exitPhase(now);
+    if (phaseNanos.isEmpty()) {
+      return;
+    }
+    sbtLogger.debug(
+        () -> {
+          StringBuilder summary = new StringBuilder("phase times:");
+          phaseNanos.forEach(
+              (phase, nanos) ->
+                  summary.append(' ').append(phase).append('=').append(millis(nanos)));
+          return summary.append(" ms").toString();
+        });
+
+    StringBuilder json = new StringBuilder();
+    json.append("{\n");
+    json.append("  \"totalMs\": ").append(millis(now - start)).append(",\n");
+    json.append("  \"phases\": [");
+    String separator = "\n";
+    for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+      json.append(separator)
+          .append("    {\"phase\": ")
+          .append(Json.quote(phase.getKey()))
+          .append(", \"ms\": ")
+          .append(millis(phase.getValue()))
+          .append('}');
+      separator = ",\n";
+    }
+    json.append("\n  ],\n");
+    json.append("  \"slowestUnits\": [");
+    separator = "\n";
+    List<Map.Entry<String, Long>> units = new ArrayList<>(unitNanos.entrySet());
+    units.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+    for (Map.Entry<String, Long> unit : units.subList(0, Math.min(SLOWEST_UNITS, units.size()))) {
+      json.append(separator)
+          .append("    {\"unit\": ")
+          .append(Json.quote(unit.getKey()))
+          .append(", \"ms\": ")
+          .append(millis(unit.getValue()))
+          .append('}');
+      separator = ",\n";
+    }
+    json.append(units.isEmpty() ? "]\n" : "\n  ]\n");
+    json.append("}\n");
+
+    reportFile.getParentFile().mkdirs();
+    File tmpFile = File.createTempFile(reportFile.getName(), ".tmp", reportFile.getParentFile());
+    Files.write(tmpFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    Files.move(
+        tmpFile.toPath(),
+        reportFile.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+}
@@ -15,4 +15,35 @@ public interface SbtIncrementalCompiler {
       File classesDirectory,
       Collection<String> scalacOptions,
       Collection<String> javacOptions);
+
+  /**
+   * Same as {@link #compile(Collection, Collection, File, Collection, Collection)}, running
+   * onEarlyOutput as soon as this compilation has written, or found up to date, the early output
+   * jar of pipelining. It isn't run if the compiler doesn't pipeline or fails before.
+   */
+  default void compile(
+      Collection<File> classpathElements,
+      Collection<File> sources,
+      File classesDirectory,
+      Collection<String> scalacOptions,
+      Collection<String> javacOptions,
+      Runnable onEarlyOutput) {
+    compile(classpathElements, sources, classesDirectory, scalacOptions, javacOptions);
+  }
+
+  /**
+   * Same as {@link #compile(Collection, Collection, File, Collection, Collection)}, with the files
+   * changed since the previous compilation of this compiler, eg seen by a file watcher. The other
+   * sources are known unchanged and are not stamped again. Compilers not tracking stamps ignore
+   * them.
+   */
+  default void compile(
+      Collection<File> classpathElements,
+      Collection<File> sources,
+      File classesDirectory,
+      Collection<String> scalacOptions,
+      Collection<String> javacOptions,
+      Collection<File> changedFiles) {
+    compile(classpathElements, sources, classesDirectory, scalacOptions, javacOptions);
+  }
 }
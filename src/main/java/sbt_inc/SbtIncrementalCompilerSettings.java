@@ -0,0 +1,93 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import xsbti.compile.CompileOrder;
+
+/**
+ * Settings of the incremental compilers made by {@link SbtIncrementalCompilers#make}, the defaults
+ * being the ones of the compile mojos. The compilation settings are sent with the requests to the
+ * forked compilers, the pooling and forking ones are used by the plugin's JVM.
+ */
+public final class SbtIncrementalCompilerSettings {
+
+  // compilation
+
+  public CompileOrder compileOrder = CompileOrder.Mixed;
+  public AnalysisStoreFormat analysisStoreFormat = AnalysisStoreFormat.binary;
+  public boolean compactAnalysis;
+  public boolean pipelining;
+  public boolean adaptiveRecompile;
+  public int maxErrors = 100;
+  public int maxLoggedWarnings = 100;
+
+  // pooling, by the JVM compiling
+
+  public int scalaInstanceCacheSize;
+  public int classLoaderCacheSize = 4;
+  public int analysisCacheSize = 64;
+  public boolean writeBehindAnalysis;
+
+  // forking, the compilers are run in process if there are neither jvmArgs nor compile daemon
+
+  public String[] jvmArgs = {};
+  public File javaExec;
+  public List<File> forkClasspath = Collections.emptyList();
+  public boolean reuseForkedCompiler;
+  public boolean useCompileDaemon;
+  public int compileDaemonIdleTimeout = 30;
+
+  public SbtIncrementalCompilerSettings copy() {
+    SbtIncrementalCompilerSettings copy = new SbtIncrementalCompilerSettings();
+    copy.compileOrder = compileOrder;
+    copy.analysisStoreFormat = analysisStoreFormat;
+    copy.compactAnalysis = compactAnalysis;
+    copy.pipelining = pipelining;
+    copy.adaptiveRecompile = adaptiveRecompile;
+    copy.maxErrors = maxErrors;
+    copy.maxLoggedWarnings = maxLoggedWarnings;
+    copy.scalaInstanceCacheSize = scalaInstanceCacheSize;
+    copy.classLoaderCacheSize = classLoaderCacheSize;
+    copy.analysisCacheSize = analysisCacheSize;
+    copy.writeBehindAnalysis = writeBehindAnalysis;
+    copy.jvmArgs = jvmArgs;
+    copy.javaExec = javaExec;
+    copy.forkClasspath = forkClasspath;
+    copy.reuseForkedCompiler = reuseForkedCompiler;
+    copy.useCompileDaemon = useCompileDaemon;
+    copy.compileDaemonIdleTimeout = compileDaemonIdleTimeout;
+    return copy;
+  }
+
+  /** Write the compilation settings, see {@link ForkedSbtIncrementalCompilerProtocol}. */
+  void write(DataOutputStream out) throws IOException {
+    out.writeUTF(compileOrder.name());
+    out.writeUTF(analysisStoreFormat.name());
+    out.writeBoolean(compactAnalysis);
+    out.writeBoolean(pipelining);
+    out.writeBoolean(adaptiveRecompile);
+    out.writeInt(maxErrors);
+    out.writeInt(maxLoggedWarnings);
+  }
+
+  /** Read the compilation settings written by {@link #write}, the others being the defaults. */
+  static SbtIncrementalCompilerSettings read(DataInputStream in) throws IOException {
+    SbtIncrementalCompilerSettings settings = new SbtIncrementalCompilerSettings();
+    settings.compileOrder = CompileOrder.valueOf(in.readUTF());
+    settings.analysisStoreFormat = AnalysisStoreFormat.valueOf(in.readUTF());
+    settings.compactAnalysis = in.readBoolean();
+    settings.pipelining = in.readBoolean();
+    settings.adaptiveRecompile = in.readBoolean();
+    settings.maxErrors = in.readInt();
+    settings.maxLoggedWarnings = in.readInt();
+    return settings;
+  }
+}
@@ -6,197 +6,356 @@ package sbt_inc;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
-import org.apache.commons.exec.LogOutputStream;
 import org.apache.maven.plugin.logging.Log;
 import sbt.internal.inc.*;
-import sbt.internal.inc.FileAnalysisStore;
 import sbt.internal.inc.ScalaInstance;
 import sbt.util.Logger;
 import scala.Option;
 import scala.jdk.FunctionWrappers;
 import scala_maven.MavenArtifactResolver;
 import scala_maven.VersionNumber;
-import scala_maven_executions.Fork;
-import scala_maven_executions.ForkLogger;
+import util.LruCache;
 import xsbti.PathBasedFile;
 import xsbti.T2;
 import xsbti.VirtualFile;
 import xsbti.compile.*;
 
 public final class SbtIncrementalCompilers {
+
+  // analyses of the upstream modules, keyed by file, size and last modified, weighted by file size;
+  // they take 10 to 20 times more heap once loaded, so they are softly referenced to be collected
+  // before running out of memory
+  private static final LruCache<List<Object>, SoftReference<CompileAnalysis>>
+      cachedUpstreamAnalyses = new LruCache<>(0, (key, analysis) -> (Long) key.get(1));
+
+  /**
+   * Returns an incremental compiler storing its analysis in the cache file, compiling with the
+   * given Scala compiler and library, in process or forked depending on the settings.
+   */
   public static SbtIncrementalCompiler make(
       File javaHome,
       MavenArtifactResolver resolver,
       File secondaryCacheDir,
       Log mavenLogger,
       File cacheFile,
-      CompileOrder compileOrder,
       VersionNumber scalaVersion,
       Collection<File> compilerAndDependencies,
       Collection<File> libraryAndDependencies,
-      String[] jvmArgs,
-      File javaExec,
-      List<File> forkBootClasspath)
+      SbtIncrementalCompilerSettings settings)
       throws Exception {
 
     ScalaInstance scalaInstance =
-        ScalaInstances.makeScalaInstance(
-            scalaVersion.toString(), compilerAndDependencies, libraryAndDependencies);
+        ScalaInstances.getScalaInstance(
+            scalaVersion.toString(),
+            compilerAndDependencies,
+            libraryAndDependencies,
+            settings.scalaInstanceCacheSize);
+    mavenLogger.debug("ScalaInstance pool: " + ScalaInstances.cacheStatistics());
 
     File compilerBridgeJar =
         CompilerBridgeFactory.getCompiledBridgeJar(
-            scalaVersion, scalaInstance, secondaryCacheDir, resolver, mavenLogger);
+            scalaVersion, () -> scalaInstance, secondaryCacheDir, resolver, mavenLogger);
 
-    if (jvmArgs == null || jvmArgs.length == 0) {
-      return makeInProcess(
-          javaHome,
-          cacheFile,
-          compileOrder,
-          scalaInstance,
-          compilerBridgeJar,
-          new MavenLoggerSbtAdapter(mavenLogger));
+    File jarFingerprintsFile =
+        new File(CompilerBridgeFactory.secondaryCacheDir(secondaryCacheDir), "jar-fingerprints");
+
+    if (settings.pipelining && !supportsPipelining(scalaVersion)) {
+      mavenLogger.warn(
+          "pipelining requires Scala 2.12.12+ or 2.13.3+, disabling it for Scala " + scalaVersion);
+      settings = settings.copy();
+      settings.pipelining = false;
+    }
+
+    if ((settings.jvmArgs == null || settings.jvmArgs.length == 0) && !settings.useCompileDaemon) {
+      SbtIncrementalCompiler compiler =
+          makeInProcess(
+              javaHome,
+              cacheFile,
+              scalaInstance,
+              compilerBridgeJar,
+              jarFingerprintsFile,
+              new MavenLoggerSbtAdapter(mavenLogger),
+              settings);
+      mavenLogger.debug("Compiler classloader pool: " + CompilerClassLoaders.cacheStatistics());
+      mavenLogger.debug("Upstream analysis cache: " + cachedUpstreamAnalyses);
+      return compiler;
     } else {
       return makeForkedProcess(
           javaHome,
           cacheFile,
-          compileOrder,
           compilerBridgeJar,
+          jarFingerprintsFile,
           scalaVersion,
           compilerAndDependencies,
           libraryAndDependencies,
           mavenLogger,
-          jvmArgs,
-          javaExec,
-          forkBootClasspath);
+          settings);
     }
   }
 
+  private static boolean supportsPipelining(VersionNumber scalaVersion) {
+    return scalaVersion.major == 2
+        && ((scalaVersion.minor == 12 && scalaVersion.bugfix >= 12)
+            || (scalaVersion.minor == 13 && scalaVersion.bugfix >= 3));
+  }
+
+  /**
+   * Jar of the pickles (the Scala signatures) of the module whose analysis is cacheFile, written
+   * after the typer phase when pipelining, so that downstream modules can compile against it before
+   * the module's code generation is complete.
+   */
+  public static File earlyOutputJar(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-early.jar");
+  }
+
+  private static File earlyAnalysisFile(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-early");
+  }
+
+  private static File sourceStampsFile(File cacheFile) {
+    return new File(cacheFile.getParentFile(), cacheFile.getName() + "-stamps");
+  }
+
   static SbtIncrementalCompiler makeInProcess(
       File javaHome,
       File cacheFile,
-      CompileOrder compileOrder,
       ScalaInstance scalaInstance,
       File compilerBridgeJar,
-      Logger sbtLogger) {
+      File jarFingerprintsFile,
+      Logger sbtLogger,
+      SbtIncrementalCompilerSettings settings) {
 
-    Compilers compilers = makeCompilers(scalaInstance, javaHome, compilerBridgeJar);
-    AnalysisStore analysisStore = AnalysisStore.getCachedStore(FileAnalysisStore.binary(cacheFile));
-    Setup setup = makeSetup(cacheFile, sbtLogger);
+    Compilers compilers =
+        makeCompilers(scalaInstance, javaHome, compilerBridgeJar, settings.classLoaderCacheSize);
+    AnalysisStore fileStore =
+        AnalysisStores.make(cacheFile, settings.analysisStoreFormat, settings.compactAnalysis);
+    if (settings.writeBehindAnalysis) {
+      fileStore = WriteBehindAnalysisStore.of(cacheFile, fileStore);
+    }
+    AnalysisStore analysisStore =
+        settings.compactAnalysis
+            ? CompactAnalyses.cachedStore(fileStore)
+            : AnalysisStore.getCachedStore(fileStore);
+    JarFingerprints jarFingerprints = JarFingerprints.of(jarFingerprintsFile);
+    Setup setup =
+        makeSetup(
+            cacheFile,
+            sbtLogger,
+            settings.analysisCacheSize,
+            settings.compactAnalysis,
+            jarFingerprints,
+            new File(jarFingerprintsFile.getParentFile(), "class-names"),
+            javaHome);
+    Optional<File> earlyOutputJar = Optional.empty();
+    if (settings.pipelining) {
+      setup =
+          setup
+              .withIncrementalCompilerOptions(
+                  setup.incrementalCompilerOptions().withPipelining(true))
+              .withEarlyAnalysisStore(
+                  AnalysisStores.make(earlyAnalysisFile(cacheFile), settings.analysisStoreFormat));
+      earlyOutputJar = Optional.of(earlyOutputJar(cacheFile));
+    }
     IncrementalCompiler compiler = ZincUtil.defaultIncrementalCompiler();
 
     return new InProcessSbtIncrementalCompiler(
-        compilers, analysisStore, setup, compiler, compileOrder, sbtLogger);
+        compilers,
+        analysisStore,
+        sourceStampsFile(cacheFile),
+        jarFingerprints,
+        InvalidationReport.reportFile(cacheFile),
+        IncrementalHistory.historyFile(cacheFile),
+        PhaseTimings.reportFile(cacheFile),
+        DiagnosticsReporter.diagnosticsFile(cacheFile),
+        settings.adaptiveRecompile,
+        settings.maxErrors,
+        settings.maxLoggedWarnings,
+        setup,
+        compiler,
+        settings.compileOrder,
+        earlyOutputJar,
+        sbtLogger);
   }
 
   private static SbtIncrementalCompiler makeForkedProcess(
       File javaHome,
       File cacheFile,
-      CompileOrder compileOrder,
       File compilerBridgeJar,
+      File jarFingerprintsFile,
       VersionNumber scalaVersion,
       Collection<File> compilerAndDependencies,
       Collection<File> libraryAndDependencies,
       Log mavenLogger,
-      String[] jvmArgs,
-      File javaExec,
-      List<File> pluginArtifacts) {
+      SbtIncrementalCompilerSettings settings) {
 
+    String[] jvmArgs = settings.jvmArgs == null ? new String[] {} : settings.jvmArgs;
     List<String> forkClasspath =
-        pluginArtifacts.stream().map(File::getPath).collect(Collectors.toList());
+        settings.forkClasspath.stream().map(File::getPath).collect(Collectors.toList());
 
     return (classpathElements, sources, classesDirectory, scalacOptions, javacOptions) -> {
       try {
-        String[] args =
+        ForkedSbtIncrementalCompilerMain.Args args =
             new ForkedSbtIncrementalCompilerMain.Args(
-                    javaHome,
-                    cacheFile,
-                    compileOrder,
-                    compilerBridgeJar,
-                    scalaVersion.toString(),
-                    compilerAndDependencies,
-                    libraryAndDependencies,
-                    classpathElements,
-                    sources,
-                    classesDirectory,
-                    scalacOptions,
-                    javacOptions,
-                    mavenLogger.isDebugEnabled())
-                .generateArgs();
-
-        Fork fork =
-            new Fork(
-                ForkedSbtIncrementalCompilerMain.class.getName(),
-                forkClasspath,
-                jvmArgs,
-                args,
-                javaExec);
-
-        fork.run(
-            new LogOutputStream() {
-              private final ForkLogger forkLogger =
-                  new ForkLogger() {
-                    @Override
-                    public void onException(Exception t) {
-                      mavenLogger.error(t);
-                    }
-
-                    @Override
-                    public void onError(String content) {
-                      mavenLogger.error(content);
-                    }
-
-                    @Override
-                    public void onWarn(String content) {
-                      mavenLogger.warn(content);
-                    }
-
-                    @Override
-                    public void onInfo(String content) {
-                      mavenLogger.info(content);
-                    }
-
-                    @Override
-                    public void onDebug(String content) {
-                      mavenLogger.debug(content);
-                    }
-                  };
-
-              @Override
-              protected void processLine(String line, int level) {
-                forkLogger.processLine(line);
-              }
+                javaHome,
+                cacheFile,
+                compilerBridgeJar,
+                jarFingerprintsFile,
+                scalaVersion.toString(),
+                compilerAndDependencies,
+                libraryAndDependencies,
+                settings,
+                classpathElements,
+                sources,
+                classesDirectory,
+                scalacOptions,
+                javacOptions,
+                mavenLogger.isDebugEnabled());
+        ForkedSbtIncrementalCompilerProtocol.LogListener listener = makeLogListener(mavenLogger);
 
-              public void close() throws IOException {
-                forkLogger.forceNextLineToFlush();
-                super.close();
-              }
-            });
+        if (settings.useCompileDaemon) {
+          ForkedSbtIncrementalCompilerDaemonClient.compile(
+              settings.javaExec,
+              jvmArgs,
+              forkClasspath,
+              compilerAndDependencies,
+              settings.compileDaemonIdleTimeout,
+              args,
+              listener);
+          return;
+        }
+
+        if (settings.reuseForkedCompiler) {
+          ForkedSbtIncrementalCompilerWorkerPool.compile(
+              settings.javaExec, jvmArgs, forkClasspath, compilerAndDependencies, args, listener);
+          return;
+        }
+
+        ForkedSbtIncrementalCompilerWorkerPool.compileOnce(
+            settings.javaExec, jvmArgs, forkClasspath, args, listener);
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
     };
   }
 
+  private static ForkedSbtIncrementalCompilerProtocol.LogListener makeLogListener(Log mavenLogger) {
+    return (level, message) -> {
+      switch (level) {
+        case ERROR:
+          mavenLogger.error(message);
+          break;
+        case WARN:
+          mavenLogger.warn(message);
+          break;
+        case INFO:
+          mavenLogger.info(message);
+          break;
+        case DEBUG:
+          mavenLogger.debug(message);
+          break;
+      }
+    };
+  }
+
+  /**
+   * Returns the compilers of the Scala instance, JDK and bridge. zinc creates a scalac Global for
+   * each compilation, only the loaded classes are reused, with the ScalaInstance pool and the
+   * classloaders of the bridge, see {@link CompilerClassLoaders}.
+   */
   private static Compilers makeCompilers(
-      ScalaInstance scalaInstance, File javaHome, File compilerBridgeJar) {
+      ScalaInstance scalaInstance,
+      File javaHome,
+      File compilerBridgeJar,
+      int classLoaderCacheSize) {
     ScalaCompiler scalaCompiler =
         new AnalyzingCompiler(
             scalaInstance, // scalaInstance
             ZincCompilerUtil.constantBridgeProvider(scalaInstance, compilerBridgeJar), // provider
             ClasspathOptionsUtil.auto(), // classpathOptions
             new FunctionWrappers.FromJavaConsumer<>(noop -> {}), // onArgsHandler
-            Option.apply(null) // classLoaderCache
+            Option.apply(
+                CompilerClassLoaders.forScalaInstance(scalaInstance, classLoaderCacheSize)
+                    .orElse(null)) // classLoaderCache
             );
 
-    return ZincUtil.compilers(
-        scalaInstance, ClasspathOptionsUtil.boot(), Option.apply(javaHome.toPath()), scalaCompiler);
+    // javac in process when the JDK is the running one, else forked from the JDK
+    Optional<javax.tools.JavaCompiler> inProcessJavac = InProcessJavac.forJavaHome(javaHome);
+    if (!inProcessJavac.isPresent()) {
+      return ZincUtil.compilers(
+          scalaInstance,
+          ClasspathOptionsUtil.boot(),
+          Option.apply(javaHome.toPath()),
+          scalaCompiler);
+    }
+    JavaTools localTools =
+        sbt.internal.inc.javac.JavaTools$.MODULE$.directOrFork(
+            scalaInstance, ClasspathOptionsUtil.boot(), Option.empty());
+    JavaTools javaTools =
+        sbt.internal.inc.javac.JavaTools$.MODULE$.apply(
+            new sbt.internal.inc.javac.LocalJavaCompiler(inProcessJavac.get()),
+            localTools.javadoc());
+    return ZincUtil.compilers(javaTools, scalaCompiler);
   }
 
-  private static Setup makeSetup(File cacheFile, xsbti.Logger sbtLogger) {
+  /**
+   * Load the analysis of an upstream module, sharing it with the other modules and scopes of the
+   * JVM until the file changes. The cache holds the analyses of at most analysisCacheSize MB of
+   * analysis files, the least recently used being evicted, and 0 disables it. The analyses
+   * collected under memory pressure are loaded again.
+   */
+  private static Optional<CompileAnalysis> loadUpstreamAnalysis(
+      File analysisStoreFile, int analysisCacheSize, boolean compactAnalysis) {
+    // the file is written behind by the compiler of the upstream module
+    WriteBehindAnalysisStore.flush(analysisStoreFile);
+    if (analysisCacheSize <= 0) {
+      return loadAnalysis(analysisStoreFile, compactAnalysis);
+    }
+    cachedUpstreamAnalyses.setMaxWeight(analysisCacheSize * 1024L * 1024L);
+    List<Object> key =
+        Arrays.asList(
+            analysisStoreFile.getAbsolutePath(),
+            analysisStoreFile.length(),
+            analysisStoreFile.lastModified(),
+            compactAnalysis);
+    SoftReference<CompileAnalysis> cached =
+        cachedUpstreamAnalyses.get(
+            key,
+            k ->
+                loadAnalysis(analysisStoreFile, compactAnalysis)
+                    .map(SoftReference::new)
+                    .orElse(null));
+    if (cached == null) {
+      return Optional.empty();
+    }
+    CompileAnalysis analysis = cached.get();
+    if (analysis == null) {
+      cachedUpstreamAnalyses.remove(key);
+      Optional<CompileAnalysis> loaded = loadAnalysis(analysisStoreFile, compactAnalysis);
+      loaded.ifPresent(a -> cachedUpstreamAnalyses.get(key, k -> new SoftReference<>(a)));
+      return loaded;
+    }
+    return Optional.of(analysis);
+  }
+
+  private static Optional<CompileAnalysis> loadAnalysis(
+      File analysisStoreFile, boolean compactAnalysis) {
+    return AnalysisStores.read(analysisStoreFile, compactAnalysis)
+        .map(AnalysisContents::getAnalysis);
+  }
+
+  private static Setup makeSetup(
+      File cacheFile,
+      xsbti.Logger sbtLogger,
+      int analysisCacheSize,
+      boolean compactAnalysis,
+      JarFingerprints jarFingerprints,
+      File classNameIndexDir,
+      File javaHome) {
     PerClasspathEntryLookup lookup =
         new PerClasspathEntryLookup() {
           @Override
@@ -204,6 +363,16 @@ public final class SbtIncrementalCompilers {
             Path path = ((PathBasedFile) classpathEntry).toPath();
 
             String analysisStoreFileName = null;
+            String fileName = path.getFileName().toString();
+            if (fileName.endsWith("-early.jar")) {
+              // early output of an upstream module, see earlyOutputJar
+              File earlyAnalysisFile =
+                  path.resolveSibling(fileName.substring(0, fileName.length() - ".jar".length()))
+                      .toFile();
+              return earlyAnalysisFile.exists()
+                  ? loadUpstreamAnalysis(earlyAnalysisFile, analysisCacheSize, compactAnalysis)
+                  : Optional.empty();
+            }
             if (Files.isDirectory(path)) {
               if (path.getFileName().toString().equals("classes")) {
                 analysisStoreFileName = "compile";
@@ -217,9 +386,7 @@ public final class SbtIncrementalCompilers {
               File analysisStoreFile =
                   path.getParent().resolve("analysis").resolve(analysisStoreFileName).toFile();
               if (analysisStoreFile.exists()) {
-                return AnalysisStore.getCachedStore(FileAnalysisStore.binary(analysisStoreFile))
-                    .get()
-                    .map(AnalysisContents::getAnalysis);
+                return loadUpstreamAnalysis(analysisStoreFile, analysisCacheSize, compactAnalysis);
               }
             }
             return Optional.empty();
@@ -227,9 +394,26 @@ public final class SbtIncrementalCompilers {
 
           @Override
           public DefinesClass definesClass(VirtualFile classpathEntry) {
-            return classpathEntry.name().equals("rt.jar")
-                ? className -> false
-                : Locate.definesClass(classpathEntry);
+            try {
+              if (classpathEntry instanceof PathBasedFile) {
+                Path path = ((PathBasedFile) classpathEntry).toPath();
+                if (path.getFileName().toString().endsWith(".jar") && Files.isRegularFile(path)) {
+                  return ClassNameIndex.forJar(classNameIndexDir, jarFingerprints, path);
+                }
+              } else if (classpathEntry.name().equals("rt.jar")) {
+                // placeholder of the classes of the JDK compiled against, indexed when it has
+                // modules
+                Optional<ClassNameIndex> jdkIndex =
+                    ClassNameIndex.forJdkModules(classNameIndexDir, javaHome);
+                if (jdkIndex.isPresent()) {
+                  return jdkIndex.get();
+                }
+                return className -> false;
+              }
+            } catch (IOException e) {
+              sbtLogger.debug(() -> "failed to index the classes of " + classpathEntry + ": " + e);
+            }
+            return Locate.definesClass(classpathEntry);
           }
         };
 
@@ -238,8 +422,11 @@ public final class SbtIncrementalCompilers {
         false, // skip
         cacheFile, // cacheFile
         CompilerCache.fresh(), // cache
-        IncOptions.of(), // incOptions
-        new LoggedReporter(100, sbtLogger, pos -> pos), // reporter
+        // the pickles written with pipelining don't change the classes, switching it on or off
+        // mustn't discard the previous analysis
+        IncOptions.of()
+            .withIgnoredScalacOptions(new String[] {"-Ypickle-java", "-Ypickle-write .*"}),
+        null, // reporter, a DiagnosticsReporter is set for each compilation
         Optional.empty(), // optionProgress
         new T2[] {});
   }
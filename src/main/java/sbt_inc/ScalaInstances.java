@@ -5,6 +5,7 @@
 package sbt_inc;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -12,9 +13,42 @@ import java.util.*;
 import sbt.internal.inc.ScalaInstance;
 import scala.Option;
 import scala_maven.ScalaCompilerLoader;
+import util.LruCache;
 
 public final class ScalaInstances {
 
+  // shared by the modules and scopes of the Maven session, as long as the plugin realm lives
+  private static final LruCache<List<Object>, ScalaInstance> cachedInstances = new LruCache<>(0);
+
+  /**
+   * Returns a pooled ScalaInstance for the Scala version and jars, creating it if needed, so the
+   * compiler classes are loaded once per session. At most maxCachedInstances are kept, the least
+   * recently used being evicted, and 0 disables the pool. The classloaders of an evicted instance
+   * aren't closed, as the compilers made from it may still be compiling or compile later: they
+   * release their jars once collected.
+   */
+  static ScalaInstance getScalaInstance(
+      String scalaVersion,
+      Collection<File> compilerAndDependencies,
+      Collection<File> libraryAndDependencies,
+      int maxCachedInstances) {
+    if (maxCachedInstances <= 0) {
+      return makeScalaInstance(scalaVersion, compilerAndDependencies, libraryAndDependencies);
+    }
+    cachedInstances.setMaxWeight(maxCachedInstances);
+    return cachedInstances.get(
+        Arrays.asList(
+            scalaVersion,
+            new ArrayList<>(compilerAndDependencies),
+            new ArrayList<>(libraryAndDependencies)),
+        k -> makeScalaInstance(scalaVersion, compilerAndDependencies, libraryAndDependencies));
+  }
+
+  /** Describes the pool size and its hit/miss counts. */
+  static String cacheStatistics() {
+    return cachedInstances.toString();
+  }
+
   static ScalaInstance makeScalaInstance(
       String scalaVersion,
       Collection<File> compilerAndDependencies,
@@ -42,6 +76,23 @@ public final class ScalaInstances {
         Option.apply(scalaVersion));
   }
 
+  /**
+   * Closes the classloaders of an instance that is no longer used, eg made only to compile a
+   * compiler bridge, to release their jars. Pooled instances are never closed.
+   */
+  static void close(ScalaInstance scalaInstance) {
+    for (ClassLoader loader :
+        Arrays.asList(scalaInstance.loaderCompilerOnly(), scalaInstance.loaderLibraryOnly())) {
+      if (loader instanceof URLClassLoader) {
+        try {
+          ((URLClassLoader) loader).close();
+        } catch (IOException e) {
+          // the jars stay open until the loader is collected
+        }
+      }
+    }
+  }
+
   private static URL[] toUrls(Collection<File> files) {
     return files.stream()
         .map(
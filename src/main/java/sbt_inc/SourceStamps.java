@@ -0,0 +1,231 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import sbt.internal.inc.Hash;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import sbt.internal.inc.Stamp;
+import sbt.internal.inc.Stamper;
+import sbt.internal.inc.Stamps;
+import xsbti.VirtualFile;
+import xsbti.VirtualFileRef;
+import xsbti.compile.analysis.ReadStamps;
+
+/**
+ * Stamps of the sources of a compilation, computed up front in parallel instead of serially by
+ * zinc. The content hash of a source is the same as zinc's, but it is only computed again when the
+ * size or the last modification time of the file changed since the previous compilation, as
+ * recorded in a stamps file next to the analysis. Jars of the classpath are stamped with their
+ * {@link JarFingerprints}, class files with a hash of their content cached there too, so that a
+ * rebuilt but identical library doesn't invalidate its dependents. Product stamps are zinc's
+ * defaults.
+ */
+final class SourceStamps implements ReadStamps {
+
+  private static final int FORMAT_VERSION = 1;
+
+  // a file modified within this delay of its stamping could be modified again in the same mtime
+  // tick without changing its size, so its hash is not reused
+  private static final long MIN_MTIME_AGE_MILLIS = 2000;
+
+  private static final class Entry {
+    final long size;
+    final long lastModified;
+    final String stamp;
+
+    Entry(long size, long lastModified, String stamp) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.stamp = stamp;
+    }
+  }
+
+  private final ReadStamps defaults =
+      Stamps.timeWrapBinaryStamps(PlainVirtualFileConverter.converter());
+  private final Map<VirtualFileRef, xsbti.compile.analysis.Stamp> sourceStamps;
+  private final int hashed;
+  private final JarFingerprints jarFingerprints;
+  private final Map<VirtualFileRef, xsbti.compile.analysis.Stamp> libraryStamps =
+      new ConcurrentHashMap<>();
+
+  private SourceStamps(
+      Map<VirtualFileRef, xsbti.compile.analysis.Stamp> sourceStamps,
+      int hashed,
+      JarFingerprints jarFingerprints) {
+    this.sourceStamps = sourceStamps;
+    this.hashed = hashed;
+    this.jarFingerprints = jarFingerprints;
+  }
+
+  /**
+   * Stamps the sources, on the common ForkJoin pool, reusing the entries of the stamps file, and
+   * updates the file. Libraries are stamped with the jar fingerprints.
+   */
+  static SourceStamps compute(
+      File stampsFile, VirtualFile[] sources, JarFingerprints jarFingerprints) {
+    return compute(stampsFile, sources, null, jarFingerprints);
+  }
+
+  /**
+   * Same as {@link #compute(File, VirtualFile[], JarFingerprints)}, knowing that only the changed
+   * paths may have changed since the stamps file was written, eg as seen by a file watcher: the
+   * other sources having an entry reuse it without reading their attributes. changedPaths is null
+   * if unknown.
+   */
+  static SourceStamps compute(
+      File stampsFile,
+      VirtualFile[] sources,
+      Set<Path> changedPaths,
+      JarFingerprints jarFingerprints) {
+    Map<String, Entry> previous = read(stampsFile);
+    long now = System.currentTimeMillis();
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    Map<VirtualFileRef, xsbti.compile.analysis.Stamp> stamps = new ConcurrentHashMap<>();
+    AtomicInteger hashed = new AtomicInteger();
+    Arrays.stream(sources)
+        .parallel()
+        .forEach(
+            source -> {
+              Path path = PlainVirtualFileConverter.converter().toPath(source);
+              String key = path.toString();
+              xsbti.compile.analysis.Stamp stamp;
+              Entry unchanged =
+                  changedPaths == null || changedPaths.contains(path) ? null : previous.get(key);
+              if (unchanged != null) {
+                entries.put(key, unchanged);
+                stamps.put(source, Stamp.fromString(unchanged.stamp));
+                return;
+              }
+              try {
+                BasicFileAttributes attributes =
+                    Files.readAttributes(path, BasicFileAttributes.class);
+                long size = attributes.size();
+                long lastModified = attributes.lastModifiedTime().toMillis();
+                Entry entry = previous.get(key);
+                if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+                  stamp = Stamp.fromString(entry.stamp);
+                } else {
+                  stamp = Stamper.forContentHash().apply(source);
+                  hashed.incrementAndGet();
+                }
+                if (now - lastModified >= MIN_MTIME_AGE_MILLIS) {
+                  entries.put(key, new Entry(size, lastModified, stamp.writeStamp()));
+                }
+              } catch (IOException e) {
+                // missing source, let zinc report it
+                stamp = Stamper.forContentHash().apply(source);
+              }
+              stamps.put(source, stamp);
+            });
+    if (hashed.get() > 0 || entries.size() != previous.size()) {
+      write(stampsFile, entries);
+    }
+    return new SourceStamps(stamps, hashed.get(), jarFingerprints);
+  }
+
+  /** Number of sources whose content was hashed, the others reusing their previous stamp. */
+  int hashed() {
+    return hashed;
+  }
+
+  @Override
+  public xsbti.compile.analysis.Stamp product(VirtualFileRef file) {
+    return defaults.product(file);
+  }
+
+  @Override
+  public xsbti.compile.analysis.Stamp source(VirtualFile file) {
+    xsbti.compile.analysis.Stamp stamp = sourceStamps.get(file);
+    return stamp != null ? stamp : defaults.source(file);
+  }
+
+  @Override
+  public xsbti.compile.analysis.Stamp library(VirtualFileRef file) {
+    return libraryStamps.computeIfAbsent(file, this::stampLibrary);
+  }
+
+  private xsbti.compile.analysis.Stamp stampLibrary(VirtualFileRef file) {
+    Path path = PlainVirtualFileConverter.converter().toPath(file);
+    String name = path.getFileName() == null ? "" : path.getFileName().toString();
+    try {
+      if (name.endsWith(".jar") && Files.isRegularFile(path)) {
+        return Hash.unsafeFromString(jarFingerprints.fingerprint(path));
+      } else if (name.endsWith(".class") && Files.isRegularFile(path)) {
+        return Stamp.fromString(jarFingerprints.classFileStamp(path));
+      }
+    } catch (IOException e) {
+      // unreadable jar or class file, fall back to zinc's stamp
+    }
+    return defaults.library(file);
+  }
+
+  @Override
+  public Map<VirtualFileRef, xsbti.compile.analysis.Stamp> getAllLibraryStamps() {
+    return Collections.unmodifiableMap(libraryStamps);
+  }
+
+  @Override
+  public Map<VirtualFileRef, xsbti.compile.analysis.Stamp> getAllSourceStamps() {
+    return Collections.unmodifiableMap(sourceStamps);
+  }
+
+  @Override
+  public Map<VirtualFileRef, xsbti.compile.analysis.Stamp> getAllProductStamps() {
+    return defaults.getAllProductStamps();
+  }
+
+  private static Map<String, Entry> read(File stampsFile) {
+    Map<String, Entry> entries = new HashMap<>();
+    if (stampsFile.isFile()) {
+      try (DataInputStream in =
+          new DataInputStream(new BufferedInputStream(Files.newInputStream(stampsFile.toPath())))) {
+        if (in.readInt() == FORMAT_VERSION) {
+          int count = in.readInt();
+          for (int i = 0; i < count; i++) {
+            String path = in.readUTF();
+            entries.put(path, new Entry(in.readLong(), in.readLong(), in.readUTF()));
+          }
+        }
+      } catch (IOException e) {
+        // corrupted or truncated: hash everything again
+        entries.clear();
+      }
+    }
+    return entries;
+  }
+
+  private static void write(File stampsFile, Map<String, Entry> entries) {
+    try {
+      stampsFile.getParentFile().mkdirs();
+      File tmpFile = File.createTempFile(stampsFile.getName(), ".tmp", stampsFile.getParentFile());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue().size);
+          out.writeLong(entry.getValue().lastModified);
+          out.writeUTF(entry.getValue().stamp);
+        }
+      }
+      Files.move(
+          tmpFile.toPath(),
+          stampsFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      throw new UncheckedIOException("failed to write source stamps " + stampsFile, e);
+    }
+  }
+}
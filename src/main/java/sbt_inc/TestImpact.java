@@ -0,0 +1,134 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import org.apache.maven.plugin.logging.Log;
+import sbt.internal.inc.Analysis;
+import sbt.internal.inc.PlainVirtualFileConverter;
+import sbt.internal.inc.Relations;
+import scala.jdk.javaapi.CollectionConverters;
+import xsbti.VirtualFileRef;
+import xsbti.api.AnalyzedClass;
+import xsbti.compile.AnalysisContents;
+
+/**
+ * Finds the classes affected by a change from the class dependencies recorded by zinc in the
+ * analyses of a project, eg the test classes to run after a compilation. The changed classes are
+ * the ones compiled since a time, which zinc recompiled because their source or one of their
+ * dependencies changed, and the ones defined in given changed sources. The affected classes are the
+ * classes depending on them, directly or transitively, through the dependencies of each analysis
+ * and the ones of an analysis on the classes of the analyses upstream, eg of the test classes on
+ * the main classes.
+ *
+ * <p>The dependencies not seen by the compiler are not followed, like a class loaded by name or a
+ * resource.
+ */
+public final class TestImpact {
+
+  private TestImpact() {}
+
+  /**
+   * Returns the binary names of the classes of the last analysis affected by the classes compiled
+   * since compiledSince, in milliseconds, or defined in the changedSources, the analysis files
+   * being ordered from upstream to downstream, eg main then test. Returns empty, logging why, if
+   * the dependencies are unknown: an analysis file is missing, or a changed source is in none of
+   * the analyses, eg a deleted source or a file that isn't a source.
+   */
+  public static Optional<Set<String>> affectedClasses(
+      List<File> analysisFiles, long compiledSince, Collection<File> changedSources, Log log) {
+    List<Analysis> analyses = new ArrayList<>();
+    for (File analysisFile : analysisFiles) {
+      Optional<AnalysisContents> contents = AnalysisStores.read(analysisFile);
+      if (!contents.isPresent() || !(contents.get().getAnalysis() instanceof Analysis)) {
+        log.info("No analysis " + analysisFile + ", all the classes are affected");
+        return Optional.empty();
+      }
+      analyses.add((Analysis) contents.get().getAnalysis());
+    }
+    return affectedClassesOf(analyses, compiledSince, changedSources, log);
+  }
+
+  // the affected classes of the last analysis, see affectedClasses
+  static Optional<Set<String>> affectedClassesOf(
+      List<Analysis> analyses, long compiledSince, Collection<File> changedSources, Log log) {
+
+    // the changed sources of each analysis
+    Map<Path, Integer> analysisIndexes = new HashMap<>();
+    Map<Path, VirtualFileRef> sources = new HashMap<>();
+    for (int i = 0; i < analyses.size(); i++) {
+      for (VirtualFileRef source :
+          CollectionConverters.asJava(analyses.get(i).relations().allSources())) {
+        Path path =
+            PlainVirtualFileConverter.converter().toPath(source).toAbsolutePath().normalize();
+        analysisIndexes.put(path, i);
+        sources.put(path, source);
+      }
+    }
+    List<List<VirtualFileRef>> changed = new ArrayList<>();
+    for (int i = 0; i < analyses.size(); i++) {
+      changed.add(new ArrayList<>());
+    }
+    for (File changedSource : changedSources) {
+      Path path = changedSource.toPath().toAbsolutePath().normalize();
+      Integer i = analysisIndexes.get(path);
+      if (i == null) {
+        log.info(changedSource + " is not a source of the analyses, all the classes are affected");
+        return Optional.empty();
+      }
+      changed.get(i).add(sources.get(path));
+    }
+
+    // the source and binary names of the affected classes of the analyses upstream
+    Set<String> upstream = new HashSet<>();
+    Set<String> affected = Collections.emptySet();
+    for (int i = 0; i < analyses.size(); i++) {
+      Analysis analysis = analyses.get(i);
+      Relations relations = analysis.relations();
+      Deque<String> pending = new ArrayDeque<>();
+      for (Map.Entry<String, AnalyzedClass> entry :
+          CollectionConverters.asJava(analysis.apis().internal()).entrySet()) {
+        // the compilation timestamp of a class is the start time of its last compilation
+        if (entry.getValue().compilationTimestamp() >= compiledSince) {
+          pending.add(entry.getKey());
+        }
+      }
+      for (VirtualFileRef source : changed.get(i)) {
+        pending.addAll(CollectionConverters.asJava(relations.classNames(source)));
+      }
+      for (String name : upstream) {
+        pending.addAll(CollectionConverters.asJava(relations.usesExternal(name)));
+      }
+
+      Set<String> classNames = new HashSet<>();
+      while (!pending.isEmpty()) {
+        String name = pending.pop();
+        if (classNames.add(name)) {
+          pending.addAll(CollectionConverters.asJava(relations.usesInternalClass(name)));
+        }
+      }
+      affected = new TreeSet<>();
+      for (String name : classNames) {
+        affected.addAll(CollectionConverters.asJava(relations.productClassName().forward(name)));
+      }
+      upstream.addAll(classNames);
+      upstream.addAll(affected);
+    }
+    return Optional.of(affected);
+  }
+
+  /** Returns the binary names of all the classes of the analysis, or empty if it's missing. */
+  public static Optional<Set<String>> allClasses(File analysisFile) {
+    return AnalysisStores.read(analysisFile)
+        .filter(contents -> contents.getAnalysis() instanceof Analysis)
+        .map(
+            contents ->
+                new TreeSet<>(
+                    CollectionConverters.asJava(
+                        ((Analysis) contents.getAnalysis()).relations().productClassName()._2s())));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.AnalysisStore;
+
+/**
+ * Analysis store writing the analyses on a background thread, so that a compilation returns without
+ * waiting for its analysis to be serialized, eg in cc. The analyses set while a previous one is
+ * being written are coalesced, only the last one being written.
+ *
+ * <p>The analysis file is written to a temporary file then renamed by the underlying store, so it
+ * is never read half written. The pending writes of a file are flushed before it is read by {@link
+ * AnalysisStores#read} or as an upstream analysis, and all of them when the JVM shuts down.
+ */
+final class WriteBehindAnalysisStore implements AnalysisStore {
+
+  // a single writer for all the stores, daemon not to keep the JVM alive, see the shutdown hook
+  private static final ExecutorService writer =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "scala-maven-plugin analysis writer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private static final Map<File, WriteBehindAnalysisStore> stores = new ConcurrentHashMap<>();
+
+  static {
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(
+                () -> {
+                  for (WriteBehindAnalysisStore store : stores.values()) {
+                    try {
+                      store.flush();
+                    } catch (RuntimeException e) {
+                      System.err.println(
+                          "failed to write analysis " + store.file + ": " + e.getMessage());
+                    }
+                  }
+                },
+                "scala-maven-plugin analysis writer shutdown"));
+  }
+
+  private final File file;
+  private final AnalysisStore store;
+  // the last analysis set, until the writer takes it
+  private final AtomicReference<AnalysisContents> unwritten = new AtomicReference<>();
+  private volatile RuntimeException failure;
+
+  private WriteBehindAnalysisStore(File file, AnalysisStore store) {
+    this.file = file;
+    this.store = store;
+  }
+
+  /** Returns a store writing the analysis file of store on the background writer. */
+  static AnalysisStore of(File file, AnalysisStore store) {
+    WriteBehindAnalysisStore writeBehind = new WriteBehindAnalysisStore(file, store);
+    WriteBehindAnalysisStore previous = stores.put(file.getAbsoluteFile(), writeBehind);
+    if (previous != null) {
+      previous.flush();
+    }
+    return writeBehind;
+  }
+
+  /** Waits for the pending writes of the analysis file, if it has a write behind store. */
+  static void flush(File file) {
+    WriteBehindAnalysisStore store = stores.get(file.getAbsoluteFile());
+    if (store != null) {
+      store.flush();
+    }
+  }
+
+  @Override
+  public Optional<AnalysisContents> get() {
+    AnalysisContents contents = unwritten.get();
+    if (contents != null) {
+      return Optional.of(contents);
+    }
+    flush();
+    return store.get();
+  }
+
+  @Override
+  public AnalysisContents unsafeGet() {
+    return get().get();
+  }
+
+  @Override
+  public void set(AnalysisContents contents) {
+    // a write is queued if the writer took the previous analysis, else it will take this one
+    if (unwritten.getAndSet(contents) == null) {
+      writer.execute(this::write);
+    }
+    // reports the failure of a previous write, this analysis being written anyway
+    rethrowFailure();
+  }
+
+  private void write() {
+    AnalysisContents contents = unwritten.getAndSet(null);
+    if (contents != null) {
+      try {
+        store.set(contents);
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+    }
+  }
+
+  private void flush() {
+    // the writer runs the writes in order, so the ones queued before are done
+    try {
+      writer.submit(() -> {}).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+    rethrowFailure();
+  }
+
+  private void rethrowFailure() {
+    RuntimeException e = failure;
+    if (e != null) {
+      failure = null;
+      throw e;
+    }
+  }
+}
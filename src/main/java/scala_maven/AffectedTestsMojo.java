@@ -0,0 +1,146 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import sbt_inc.TestImpact;
+
+/**
+ * Write the list of the test classes affected by the changes, to run only them, eg on CI with
+ * <code>-Dtest=</code>. The changes are the classes compiled since the start of the build by the
+ * incremental compiler, in the project and its upstream modules, and the classes of the
+ * changedFiles. The affected test classes are the ones depending on them, directly or transitively,
+ * as recorded in the analyses of the modules. All the test classes are listed when the dependencies
+ * are unknown, eg a changed file of the modules is not a source, like a resource or a pom.xml.
+ *
+ * <pre>
+ *   mvn test-compile scala:affected-tests -DchangedFiles="$(git diff --name-only origin/main)"
+ * </pre>
+ */
+@Mojo(name = "affected-tests", threadSafe = true)
+public class AffectedTestsMojo extends AbstractMojo {
+
+  @Parameter(defaultValue = "${project}", readonly = true, required = true)
+  private MavenProject project;
+
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
+  /** Analysis file of the main classes. */
+  @Parameter(
+      property = "analysisCacheFile",
+      defaultValue = "${project.build.directory}/analysis/compile")
+  private File analysisCacheFile;
+
+  /** Analysis file of the test classes. */
+  @Parameter(
+      property = "testAnalysisCacheFile",
+      defaultValue = "${project.build.directory}/analysis/test-compile")
+  private File testAnalysisCacheFile;
+
+  /**
+   * Changed files, separated by commas or white spaces, relative to the directory Maven is run
+   * from, eg the output of <code>git diff --name-only</code>. The files of the modules which are
+   * neither the project nor one of its upstream modules are ignored.
+   */
+  @Parameter(property = "changedFiles")
+  private String changedFiles;
+
+  /**
+   * Comma separated list of the test class names to list if affected, eg FooTest, Foo*, or
+   * com.foo.FooTest, surefire's default includes and *Spec and *Suite if not set.
+   */
+  @Parameter(property = "test")
+  private String test;
+
+  /** File of the affected test classes, one binary class name per line. */
+  @Parameter(
+      property = "affectedTestsFile",
+      defaultValue = "${project.build.directory}/affected-tests.txt")
+  private File affectedTestsFile;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    if (!testAnalysisCacheFile.exists()) {
+      getLog().info("No test analysis " + testAnalysisCacheFile + ", skipping");
+      return;
+    }
+    List<File> analysisFiles = new ArrayList<>();
+    for (MavenProject upstream :
+        session.getProjectDependencyGraph().getUpstreamProjects(project, true)) {
+      File upstreamAnalysisFile = new File(upstream.getBuild().getDirectory(), "analysis/compile");
+      if (upstreamAnalysisFile.exists()) {
+        analysisFiles.add(upstreamAnalysisFile);
+      }
+    }
+    analysisFiles.add(analysisCacheFile);
+    analysisFiles.add(testAnalysisCacheFile);
+
+    Optional<Set<String>> affected =
+        TestImpact.affectedClasses(
+            analysisFiles, session.getRequest().getStartTime().getTime(), changedFiles(), getLog());
+    if (!affected.isPresent()) {
+      affected = TestImpact.allClasses(testAnalysisCacheFile);
+    }
+    Pattern tests = InProcessTestRunner.testPattern(test);
+    List<String> testClasses =
+        affected.orElse(Collections.emptySet()).stream()
+            .filter(name -> !name.contains("$") && tests.matcher(name).matches())
+            .collect(Collectors.toList());
+    getLog().info(testClasses.size() + " affected test classes written to " + affectedTestsFile);
+    try {
+      Files.createDirectories(affectedTestsFile.getParentFile().toPath());
+      Files.write(affectedTestsFile.toPath(), testClasses, StandardCharsets.UTF_8);
+    } catch (Exception e) {
+      throw new MojoExecutionException("Failed to write " + affectedTestsFile, e);
+    }
+  }
+
+  // the changed files of the project and of its upstream modules
+  private List<File> changedFiles() {
+    if (changedFiles == null || changedFiles.trim().isEmpty()) {
+      return Collections.emptyList();
+    }
+    Set<MavenProject> modules =
+        new HashSet<>(session.getProjectDependencyGraph().getUpstreamProjects(project, true));
+    modules.add(project);
+    File root = new File(session.getExecutionRootDirectory());
+    List<File> files = new ArrayList<>();
+    for (String name : changedFiles.trim().split("[,\\s]+")) {
+      File file = new File(name).isAbsolute() ? new File(name) : new File(root, name);
+      MavenProject module = moduleOf(file.toPath().toAbsolutePath().normalize());
+      if (module == null || modules.contains(module)) {
+        files.add(file);
+      }
+    }
+    return files;
+  }
+
+  // the module of the build whose base directory is the deepest one containing the file
+  private MavenProject moduleOf(Path file) {
+    MavenProject module = null;
+    int depth = -1;
+    for (MavenProject candidate : session.getProjects()) {
+      Path basedir = candidate.getBasedir().toPath().toAbsolutePath().normalize();
+      if (file.startsWith(basedir) && basedir.getNameCount() > depth) {
+        module = candidate;
+        depth = basedir.getNameCount();
+      }
+    }
+    return module;
+  }
+}
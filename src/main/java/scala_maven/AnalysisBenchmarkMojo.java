@@ -0,0 +1,127 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Optional;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import sbt_inc.AnalysisStoreFormat;
+import sbt_inc.AnalysisStores;
+import xsbti.compile.AnalysisContents;
+
+/**
+ * Measure the load time, store time and file size of the analysis files of the project in each
+ * {@link AnalysisStoreFormat}, to choose the analysisStoreFormat of the compile goals, and the heap
+ * used by the loaded analyses, with and without compactAnalysis. The project must have been
+ * compiled first.
+ */
+@Mojo(name = "analysis-benchmark", threadSafe = true)
+public class AnalysisBenchmarkMojo extends AbstractMojo {
+
+  /** Analysis files to measure. Missing files are skipped. */
+  @Parameter(
+      defaultValue =
+          "${project.build.directory}/analysis/compile,${project.build.directory}/analysis/test-compile")
+  private File[] analysisFiles;
+
+  /** Number of measured loads and stores of each file in each format, after one warm-up. */
+  @Parameter(property = "analysisBenchmark.iterations", defaultValue = "5")
+  private int iterations;
+
+  /** Directory of the files written by the benchmark. */
+  @Parameter(defaultValue = "${project.build.directory}/analysis-benchmark")
+  private File workDir;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    try {
+      for (File analysisFile : analysisFiles) {
+        Optional<AnalysisContents> contents = AnalysisStores.read(analysisFile);
+        if (!contents.isPresent()) {
+          getLog().info("No analysis in " + analysisFile + ", skipping");
+          continue;
+        }
+        getLog().info("Analysis " + analysisFile + ":");
+        getLog()
+            .info(
+                String.format("  %-14s %10s %10s %12s", "format", "store ms", "load ms", "bytes"));
+        for (AnalysisStoreFormat format : AnalysisStoreFormat.values()) {
+          File file = new File(workDir, analysisFile.getName() + "." + format);
+          measure(format, file, contents.get());
+        }
+        measureHeap(analysisFile);
+      }
+    } catch (Exception e) {
+      throw new MojoExecutionException("failed to benchmark the analysis formats", e);
+    }
+  }
+
+  // heap retained by the analysis, loaded as is then compact, measured after garbage collections
+  private void measureHeap(File analysisFile) {
+    // warm-up, so the loaded classes and the JIT don't count
+    AnalysisStores.read(analysisFile, false);
+    AnalysisStores.read(analysisFile, true);
+
+    long before = usedHeap();
+    Optional<AnalysisContents> loaded = AnalysisStores.read(analysisFile, false);
+    long afterLoad = usedHeap();
+    Optional<AnalysisContents> compact = AnalysisStores.read(analysisFile, true);
+    long afterCompactLoad = usedHeap();
+    if (!loaded.isPresent() || !compact.isPresent()) {
+      throw new IllegalStateException("failed to load back " + analysisFile);
+    }
+    getLog()
+        .info(
+            String.format(
+                "  heap used: %.1f MB before loading, %.1f MB after (+%.1f MB),"
+                    + " %.1f MB after loading it compact (+%.1f MB)",
+                before / 1e6,
+                afterLoad / 1e6,
+                (afterLoad - before) / 1e6,
+                afterCompactLoad / 1e6,
+                (afterCompactLoad - afterLoad) / 1e6));
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  private void measure(AnalysisStoreFormat format, File file, AnalysisContents contents)
+      throws Exception {
+    // warm-up
+    AnalysisStores.make(file, format).set(contents);
+    AnalysisStores.read(file);
+
+    long storeNanos = 0;
+    long loadNanos = 0;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      AnalysisStores.make(file, format).set(contents);
+      storeNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      if (!AnalysisStores.read(file).isPresent()) {
+        throw new IllegalStateException("failed to load back " + file);
+      }
+      loadNanos += System.nanoTime() - start;
+    }
+    getLog()
+        .info(
+            String.format(
+                "  %-14s %10.1f %10.1f %12d",
+                format,
+                storeNanos / 1e6 / iterations,
+                loadNanos / 1e6 / iterations,
+                Files.size(file.toPath())));
+  }
+}
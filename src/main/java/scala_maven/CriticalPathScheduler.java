@@ -0,0 +1,176 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs a DAG of tasks on a bounded number of threads. Among the tasks whose dependencies are
+ * satisfied, the one with the longest critical path (its cost plus the largest critical path of the
+ * tasks depending on it) is started first, so the longest chain of the build is never delayed by
+ * shorter ones.
+ */
+final class CriticalPathScheduler {
+
+  interface Action {
+    /** Runs the task, calling early (at most once) when its early dependents can start. */
+    void run(Runnable early) throws Exception;
+  }
+
+  static final class Task {
+    final String name;
+    final long cost;
+    final Action action;
+    /** tasks that must be complete before this one starts */
+    final Set<Task> dependencies = new LinkedHashSet<>();
+    /** tasks that must have called early (or be complete) before this one starts */
+    final Set<Task> earlyDependencies = new LinkedHashSet<>();
+
+    private final List<Task> dependents = new ArrayList<>();
+    private final List<Task> earlyDependents = new ArrayList<>();
+    private long criticalPath = -1;
+    private boolean visiting;
+    private int pending;
+    private boolean earlyDone;
+
+    Task(String name, long cost, Action action) {
+      this.name = name;
+      this.cost = cost;
+      this.action = action;
+    }
+
+    long criticalPath() {
+      return criticalPath;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private final int threads;
+  private final PriorityQueue<Task> ready =
+      new PriorityQueue<>(
+          Comparator.comparingLong(Task::criticalPath).reversed().thenComparing(task -> task.name));
+  private int running;
+  private int remaining;
+  private Exception failure;
+
+  CriticalPathScheduler(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Runs the tasks and their dependencies, and waits for them. Stops starting tasks after the first
+   * failure and throws it once the running tasks are done.
+   */
+  void run(Collection<Task> tasks) throws Exception {
+    Set<Task> all = new LinkedHashSet<>();
+    for (Task task : tasks) {
+      collect(task, all);
+    }
+    for (Task task : all) {
+      computeCriticalPath(task);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      synchronized (this) {
+        remaining = all.size();
+        for (Task task : all) {
+          if (task.pending == 0) {
+            ready.add(task);
+          }
+        }
+        while (remaining > 0 && (failure == null || running > 0)) {
+          while (failure == null && running < threads && !ready.isEmpty()) {
+            Task task = ready.poll();
+            running++;
+            executor.execute(() -> execute(task));
+          }
+          wait();
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void execute(Task task) {
+    Exception error = null;
+    try {
+      task.action.run(() -> early(task));
+    } catch (Exception e) {
+      error = e;
+    }
+    synchronized (this) {
+      running--;
+      remaining--;
+      if (error != null) {
+        if (failure == null) {
+          failure = error;
+        }
+      } else {
+        early(task);
+        task.dependents.forEach(this::release);
+      }
+      notifyAll();
+    }
+  }
+
+  private synchronized void early(Task task) {
+    if (!task.earlyDone) {
+      task.earlyDone = true;
+      task.earlyDependents.forEach(this::release);
+      notifyAll();
+    }
+  }
+
+  private void release(Task task) {
+    task.pending--;
+    if (task.pending == 0) {
+      ready.add(task);
+    }
+  }
+
+  private static void collect(Task task, Set<Task> all) {
+    if (all.add(task)) {
+      for (Task dependency : task.dependencies) {
+        dependency.dependents.add(task);
+        collect(dependency, all);
+      }
+      for (Task dependency : task.earlyDependencies) {
+        dependency.earlyDependents.add(task);
+        collect(dependency, all);
+      }
+      task.pending = task.dependencies.size() + task.earlyDependencies.size();
+    }
+  }
+
+  private static long computeCriticalPath(Task task) {
+    if (task.criticalPath < 0) {
+      if (task.visiting) {
+        throw new IllegalStateException("cycle in the dependencies of " + task);
+      }
+      task.visiting = true;
+      long longestDependent = 0;
+      for (Task dependent : task.dependents) {
+        longestDependent = Math.max(longestDependent, computeCriticalPath(dependent));
+      }
+      for (Task dependent : task.earlyDependents) {
+        longestDependent = Math.max(longestDependent, computeCriticalPath(dependent));
+      }
+      task.visiting = false;
+      task.criticalPath = task.cost + longestDependent;
+    }
+    return task.criticalPath;
+  }
+}
@@ -0,0 +1,338 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs the tests of cctest in its own JVM, with the first test framework found on the test
+ * classpath: the JUnit Platform launcher, the ScalaTest runner or JUnit 4. The frameworks are
+ * called by reflection, the plugin depending on none of them.
+ *
+ * <p>The jars of the test classpath are loaded by a classloader kept between the runs as long as
+ * they don't change, and the directories, eg target/classes and target/test-classes, by a
+ * classloader created for each run.
+ */
+final class InProcessTestRunner implements Closeable {
+
+  // surefire's default includes, and the conventional names of the ScalaTest suites
+  private static final String DEFAULT_TESTS = "Test*,*Test,*Tests,*TestCase,*Spec,*Suite";
+
+  private final Log log;
+  private List<Object> dependenciesKey;
+  private URLClassLoader dependencies;
+
+  InProcessTestRunner(Log log) {
+    this.log = log;
+  }
+
+  /**
+   * Runs the tests of testClassesDir whose class name matches test, a comma separated list of class
+   * names or simple names with * wildcards, null for the default includes (see {@link
+   * #testPattern}), and, unless classNames is null, is one of classNames. Returns whether all the
+   * tests passed, or empty if there are tests to run and no supported test framework is on the
+   * classpath.
+   */
+  Optional<Boolean> run(
+      List<File> testClasspath, File testClassesDir, String test, Collection<String> classNames)
+      throws Exception {
+    List<File> jars = new ArrayList<>();
+    List<File> directories = new ArrayList<>();
+    for (File element : testClasspath) {
+      (element.isDirectory() ? directories : jars).add(element);
+    }
+    Pattern tests = testPattern(test);
+    // the test classes to run, or null to let the framework find them
+    List<String> selected = null;
+    if (classNames != null) {
+      selected =
+          testClassNames(testClassesDir, tests).stream()
+              .filter(classNames::contains)
+              .collect(Collectors.toList());
+    } else if (test != null) {
+      selected = testClassNames(testClassesDir, tests);
+    }
+    if (selected != null && selected.isEmpty()) {
+      log.info(classNames != null ? "no affected test" : "no test matching " + test);
+      return Optional.of(true);
+    }
+
+    Thread thread = Thread.currentThread();
+    ClassLoader contextClassLoader = thread.getContextClassLoader();
+    try (URLClassLoader classes = new URLClassLoader(urls(directories), dependencies(jars))) {
+      // the frameworks find the engines and load the test classes with the context classloader
+      thread.setContextClassLoader(classes);
+      long n0 = System.nanoTime();
+      Optional<Boolean> passed;
+      String framework;
+      if (isPresent(classes, "org.junit.platform.launcher.core.LauncherFactory")) {
+        framework = "the JUnit Platform";
+        passed = Optional.of(runJUnitPlatform(classes, testClassesDir, tests, selected));
+      } else if (isPresent(classes, "org.scalatest.tools.Runner")) {
+        framework = "ScalaTest";
+        passed = Optional.of(runScalaTest(classes, directories, selected));
+      } else if (isPresent(classes, "org.junit.runner.JUnitCore")) {
+        framework = "JUnit 4";
+        passed =
+            Optional.of(
+                runJUnit4(
+                    classes, selected != null ? selected : testClassNames(testClassesDir, tests)));
+      } else {
+        return Optional.empty();
+      }
+      log.info(
+          String.format(
+              "tests run with %s in %.1f s",
+              framework, (System.nanoTime() - n0) / 1_000_000_000.0));
+      return passed;
+    } finally {
+      thread.setContextClassLoader(contextClassLoader);
+    }
+  }
+
+  private ClassLoader dependencies(List<File> jars) throws IOException {
+    List<Object> key = new ArrayList<>();
+    for (File jar : jars) {
+      key.add(Arrays.asList(jar, jar.length(), jar.lastModified()));
+    }
+    if (!key.equals(dependenciesKey)) {
+      close();
+      // the platform classes, without the ones of Maven and the plugin
+      dependencies = new URLClassLoader(urls(jars), ClassLoader.getSystemClassLoader().getParent());
+      dependenciesKey = key;
+    }
+    return dependencies;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (dependencies != null) {
+      dependencies.close();
+      dependencies = null;
+      dependenciesKey = null;
+    }
+  }
+
+  private boolean runJUnitPlatform(
+      ClassLoader loader, File testClassesDir, Pattern tests, List<String> selected)
+      throws Exception {
+    Class<?> selectors = loader.loadClass("org.junit.platform.engine.discovery.DiscoverySelectors");
+    List<Object> discoverySelectors = new ArrayList<>();
+    if (selected == null) {
+      discoverySelectors.addAll(
+          (List<?>)
+              selectors
+                  .getMethod("selectClasspathRoots", Set.class)
+                  .invoke(null, Collections.singleton(testClassesDir.toPath())));
+    } else {
+      Method selectClass = selectors.getMethod("selectClass", String.class);
+      for (String className : selected) {
+        discoverySelectors.add(selectClass.invoke(null, className));
+      }
+    }
+    Class<?> builderClass =
+        loader.loadClass("org.junit.platform.launcher.core.LauncherDiscoveryRequestBuilder");
+    Object builder = builderClass.getMethod("request").invoke(null);
+    builderClass.getMethod("selectors", List.class).invoke(builder, discoverySelectors);
+    Object classNameFilter =
+        loader
+            .loadClass("org.junit.platform.engine.discovery.ClassNameFilter")
+            .getMethod("includeClassNamePatterns", String[].class)
+            .invoke(null, (Object) new String[] {tests.pattern()});
+    Object filters = Array.newInstance(loader.loadClass("org.junit.platform.engine.Filter"), 1);
+    Array.set(filters, 0, classNameFilter);
+    builderClass.getMethod("filters", filters.getClass()).invoke(builder, filters);
+    Object request = builderClass.getMethod("build").invoke(builder);
+
+    Object launcher =
+        loader
+            .loadClass("org.junit.platform.launcher.core.LauncherFactory")
+            .getMethod("create")
+            .invoke(null);
+    Class<?> summaryListener =
+        loader.loadClass("org.junit.platform.launcher.listeners.SummaryGeneratingListener");
+    Object listener = summaryListener.getConstructor().newInstance();
+    Object listeners =
+        Array.newInstance(loader.loadClass("org.junit.platform.launcher.TestExecutionListener"), 1);
+    Array.set(listeners, 0, listener);
+    loader
+        .loadClass("org.junit.platform.launcher.Launcher")
+        .getMethod(
+            "execute",
+            loader.loadClass("org.junit.platform.launcher.LauncherDiscoveryRequest"),
+            listeners.getClass())
+        .invoke(launcher, request, listeners);
+
+    Object summary = summaryListener.getMethod("getSummary").invoke(listener);
+    Class<?> summaryClass =
+        loader.loadClass("org.junit.platform.launcher.listeners.TestExecutionSummary");
+    StringWriter report = new StringWriter();
+    try (PrintWriter out = new PrintWriter(report)) {
+      summaryClass.getMethod("printTo", PrintWriter.class).invoke(summary, out);
+      summaryClass.getMethod("printFailuresTo", PrintWriter.class).invoke(summary, out);
+    }
+    log.info(report.toString());
+    return (Long) summaryClass.getMethod("getTotalFailureCount").invoke(summary) == 0;
+  }
+
+  private boolean runScalaTest(ClassLoader loader, List<File> directories, List<String> selected)
+      throws Exception {
+    List<String> args = new ArrayList<>();
+    // ScalaTest loads the suites with a classloader of its own, on top of the one of the runner;
+    // the runpath is split on spaces unless quoted
+    for (File directory : directories) {
+      args.add("-R");
+      args.add(
+          directory.getPath().matches(".*\\s.*")
+              ? '"' + directory.getPath() + '"'
+              : directory.getPath());
+    }
+    args.add("-o");
+    if (selected != null) {
+      for (String suite : selected) {
+        args.add("-s");
+        args.add(suite);
+      }
+    }
+    return (Boolean)
+        invoke(
+            loader.loadClass("org.scalatest.tools.Runner").getMethod("run", String[].class),
+            null,
+            (Object) args.toArray(new String[0]));
+  }
+
+  @SuppressWarnings("unchecked")
+  private boolean runJUnit4(ClassLoader loader, List<String> classNames) throws Exception {
+    Class<? extends Annotation> testAnnotation =
+        (Class<? extends Annotation>) loader.loadClass("org.junit.Test");
+    Class<? extends Annotation> runWith =
+        (Class<? extends Annotation>) loader.loadClass("org.junit.runner.RunWith");
+    List<Class<?>> testClasses = new ArrayList<>();
+    for (String className : classNames) {
+      Class<?> testClass = loader.loadClass(className);
+      if (Modifier.isPublic(testClass.getModifiers())
+          && !Modifier.isAbstract(testClass.getModifiers())
+          && (testClass.isAnnotationPresent(runWith)
+              || Arrays.stream(testClass.getMethods())
+                  .anyMatch(method -> method.isAnnotationPresent(testAnnotation)))) {
+        testClasses.add(testClass);
+      }
+    }
+
+    Class<?> junitCore = loader.loadClass("org.junit.runner.JUnitCore");
+    Object junit = junitCore.getConstructor().newInstance();
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(report, true, "UTF-8");
+    Object textListener =
+        loader
+            .loadClass("org.junit.internal.TextListener")
+            .getConstructor(PrintStream.class)
+            .newInstance(out);
+    junitCore
+        .getMethod("addListener", loader.loadClass("org.junit.runner.notification.RunListener"))
+        .invoke(junit, textListener);
+    Object result =
+        invoke(
+            junitCore.getMethod("run", Class[].class),
+            junit,
+            (Object) testClasses.toArray(new Class<?>[0]));
+    log.info(new String(report.toByteArray(), StandardCharsets.UTF_8));
+    return (Boolean) result.getClass().getMethod("wasSuccessful").invoke(result);
+  }
+
+  // rethrows the exceptions of the frameworks as they are
+  private static Object invoke(Method method, Object target, Object... args) throws Exception {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the pattern of the class names matching test, eg FooTest, Foo*, com.foo.FooTest, or a
+   * comma separated list of them, or of surefire's default includes and *Spec and *Suite, for
+   * ScalaTest, if test is null.
+   */
+  static Pattern testPattern(String test) {
+    List<String> alternatives = new ArrayList<>();
+    for (String name : (test == null ? DEFAULT_TESTS : test).split(",")) {
+      name = name.trim().replaceFirst("#.*$", "").replaceFirst("\\.(java|scala|class)$", "");
+      if (name.isEmpty()) {
+        continue;
+      }
+      String regex =
+          Arrays.stream(name.split("\\*", -1))
+              .map(Pattern::quote)
+              .collect(Collectors.joining(".*"));
+      // a simple name matches the classes of any package
+      alternatives.add(name.contains(".") ? regex : "(.*[.$])?" + regex);
+    }
+    return Pattern.compile(String.join("|", alternatives));
+  }
+
+  // the top level classes of the directory matching the pattern
+  private static List<String> testClassNames(File testClassesDir, Pattern tests)
+      throws IOException {
+    if (!testClassesDir.isDirectory()) {
+      return Collections.emptyList();
+    }
+    Path root = testClassesDir.toPath();
+    try (Stream<Path> files = Files.walk(root)) {
+      return files
+          .map(file -> root.relativize(file).toString())
+          .filter(name -> name.endsWith(".class") && !name.contains("$"))
+          .map(
+              name ->
+                  name.substring(0, name.length() - ".class".length())
+                      .replace(File.separatorChar, '.'))
+          .filter(name -> tests.matcher(name).matches())
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static boolean isPresent(ClassLoader loader, String className) {
+    try {
+      loader.loadClass(className);
+      return true;
+    } catch (ClassNotFoundException e) {
+      return false;
+    }
+  }
+
+  private static URL[] urls(List<File> files) throws MalformedURLException {
+    URL[] urls = new URL[files.size()];
+    for (int i = 0; i < urls.length; i++) {
+      urls[i] = files.get(i).toURI().toURL();
+    }
+    return urls;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.repository.RepositorySystem;
+import sbt_inc.CompilerBridgeFactory;
+import scala_maven_dependency.ArtifactIds4Scala2;
+import scala_maven_dependency.Context;
+import scala_maven_dependency.Context4ScalaRemote;
+
+/**
+ * Compile the zinc compiler bridges of several Scala versions in parallel and install them in the
+ * secondary cache, eg to bake them in a CI image. Does not require a project:
+ *
+ * <pre>
+ * mvn net.alchim31.maven:scala-maven-plugin:prepare-compiler-bridges -DscalaVersions=2.12.18,2.13.12
+ * </pre>
+ */
+@Mojo(name = "prepare-compiler-bridges", requiresProject = false, threadSafe = true)
+public class PrepareCompilerBridgesMojo extends AbstractMojo {
+
+  /** The Scala versions whose bridges are prepared. */
+  @Parameter(property = "scalaVersions", required = true)
+  private String[] scalaVersions;
+
+  /** Organization/group ID of the Scala compilers, see the compile goals. */
+  @Parameter(property = "scala.organization", defaultValue = "org.scala-lang")
+  private String scalaOrganization;
+
+  /** The directory of the compiled bridges, see the compile goals. */
+  @Parameter(property = "secondaryCacheDir")
+  private File secondaryCacheDir;
+
+  /** Number of bridges compiled at the same time, 0 for the number of processors. */
+  @Parameter(property = "bridgeThreads", defaultValue = "0")
+  private int threads;
+
+  @Parameter(property = "session", required = true, readonly = true)
+  private MavenSession session;
+
+  @Component private RepositorySystem factory;
+
+  @Override
+  public void execute() throws MojoExecutionException {
+    MavenArtifactResolver resolver = new MavenArtifactResolver(factory, session);
+    int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.max(1, Math.min(poolSize, scalaVersions.length)));
+    try {
+      Map<String, Future<File>> bridges = new LinkedHashMap<>();
+      for (String version : scalaVersions) {
+        bridges.computeIfAbsent(
+            version.trim(), scalaVersion -> executor.submit(() -> prepare(scalaVersion, resolver)));
+      }
+
+      List<String> failed = new ArrayList<>();
+      for (Map.Entry<String, Future<File>> bridge : bridges.entrySet()) {
+        try {
+          getLog().info("Scala " + bridge.getKey() + ": " + bridge.getValue().get());
+        } catch (Exception e) {
+          getLog().error("failed to prepare the compiler bridge of Scala " + bridge.getKey(), e);
+          failed.add(bridge.getKey());
+        }
+      }
+      if (!failed.isEmpty()) {
+        throw new MojoExecutionException(
+            "failed to prepare the compiler bridges of Scala " + String.join(", ", failed));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private File prepare(String version, MavenArtifactResolver resolver) throws Exception {
+    VersionNumber scalaVersion = new VersionNumber(version);
+    List<File> compilerAndDependencies = Collections.emptyList();
+    List<File> libraryAndDependencies = Collections.emptyList();
+    // the bridges of Scala 3 are published, only the ones of Scala 2 need the compiler
+    if (scalaVersion.major != 3) {
+      Context context =
+          new Context4ScalaRemote(
+              scalaVersion, scalaVersion, new ArtifactIds4Scala2(), scalaOrganization, resolver);
+      compilerAndDependencies = files(context.findCompilerAndDependencies());
+      libraryAndDependencies = files(context.findLibraryAndDependencies());
+    }
+    return CompilerBridgeFactory.installCompiledBridgeJar(
+        scalaVersion,
+        compilerAndDependencies,
+        libraryAndDependencies,
+        secondaryCacheDir,
+        resolver,
+        getLog());
+  }
+
+  private static List<File> files(Set<Artifact> artifacts) {
+    return artifacts.stream().map(Artifact::getFile).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,362 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import java.io.File;
+import java.util.*;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.ArtifactUtils;
+import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.lifecycle.internal.MojoDescriptorCreator;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MavenPluginManager;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.repository.RepositorySystem;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import sbt_inc.SbtIncrementalCompiler;
+import sbt_inc.SbtIncrementalCompilers;
+
+/**
+ * Compiles the main and test sources of all the modules of the reactor from a single scheduler,
+ * instead of one compile and testCompile execution per module scheduled by Maven. The compilations
+ * form a DAG following the dependencies between the modules; the ready compilation with the longest
+ * critical path (estimated from the size of the sources) is started first, up to a number of
+ * concurrent compilations bounded by the CPU cores. All compilations share the warm Scala and
+ * incremental compiler instances, and with pipelining a Scala-only module starts as soon as its
+ * upstream modules have written their pickles.
+ *
+ * <p>The goal is run once, from the root of the reactor, typically as {@code mvn
+ * scala:compile-all}. It only compiles: generated sources and resources of the modules are not
+ * processed. Each module is compiled with the configuration of its own compile and testCompile
+ * goals (Scala version, scalac and javac options, compiler plugins, ...), and writes its classes
+ * and analysis files at the same place as them. The modules not using this plugin are not compiled:
+ * their output directories are used as they are.
+ */
+@Mojo(
+    name = "compile-all",
+    aggregator = true,
+    requiresDependencyCollection = ResolutionScope.TEST,
+    threadSafe = true)
+public class ScalaCompileAllMojo extends AbstractMojo {
+
+  @Parameter(defaultValue = "${session}", readonly = true, required = true)
+  private MavenSession session;
+
+  @Parameter(defaultValue = "${mojoExecution}", readonly = true, required = true)
+  private MojoExecution mojoExecution;
+
+  /** Set this to 'true' to compile only the main sources of the modules. */
+  @Parameter(property = "maven.test.skip")
+  private boolean skipTests;
+
+  /** Maximum number of concurrent compilations, 0 for the number of available processors. */
+  @Parameter(property = "compileAll.threads", defaultValue = "0")
+  private int threads;
+
+  @Component private MavenPluginManager pluginManager;
+
+  @Component private RepositorySystem factory;
+
+  /** Main or test compilation of a module. */
+  private static final class Compilation {
+    final MavenProject project;
+    final boolean test;
+    final MojoExecution execution;
+    final ScalaCompilerSupport mojo;
+    final File outputDir;
+    final File analysisFile;
+    final List<File> sources;
+    final List<String> scalacOptions;
+    final List<String> javacOptions;
+    final List<File> externalClasspath = new ArrayList<>();
+    final List<Compilation> upstreams = new ArrayList<>();
+    CriticalPathScheduler.Task task;
+    SbtIncrementalCompiler compiler;
+    /** the pickles of this compilation were written to its early output jar */
+    volatile boolean earlyOutput;
+    /** the classes of this compilation are written to its output directory */
+    volatile boolean done;
+
+    Compilation(
+        MavenProject project, boolean test, MojoExecution execution, ScalaCompilerSupport mojo)
+        throws Exception {
+      this.project = project;
+      this.test = test;
+      this.execution = execution;
+      this.mojo = mojo;
+      this.outputDir = mojo.getOutputDir().getAbsoluteFile();
+      this.analysisFile = mojo.getAnalysisCacheFile().getAbsoluteFile();
+      this.sources = mojo.findSourceWithFilters();
+      this.scalacOptions = mojo.getScalacOptions();
+      this.javacOptions = mojo.getJavacOptions();
+    }
+
+    boolean hasJavaSources() {
+      return sources.stream().anyMatch(f -> f.getName().endsWith(".java"));
+    }
+
+    @Override
+    public String toString() {
+      return project.getArtifactId() + (test ? " (test)" : "");
+    }
+  }
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    Map<String, Compilation> mains = new LinkedHashMap<>();
+    Map<String, Compilation> tests = new LinkedHashMap<>();
+    Map<String, MavenProject> modules = new HashMap<>();
+    MavenProject currentProject = session.getCurrentProject();
+    try {
+      for (MavenProject module : session.getProjects()) {
+        String key =
+            ArtifactUtils.key(module.getGroupId(), module.getArtifactId(), module.getVersion());
+        modules.put(key, module);
+        Compilation main = configure(module, false);
+        if (main == null) {
+          getLog().debug(module.getArtifactId() + " doesn't use the plugin, not compiled");
+          continue;
+        }
+        mains.put(key, main);
+        if (!skipTests) {
+          tests.put(key, configure(module, true));
+        }
+      }
+      addDependencies(mains, tests, modules);
+      run(mains, tests);
+    } catch (MojoExecutionException | MojoFailureException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MojoExecutionException(e.getMessage(), e);
+    } finally {
+      session.setCurrentProject(currentProject);
+      for (Compilation compilation : concat(mains.values(), tests.values())) {
+        pluginManager.releaseMojo(compilation.mojo, compilation.execution);
+      }
+    }
+  }
+
+  /**
+   * Returns the compilation of the module configured like its compile or testCompile goal, or null
+   * if the module doesn't use this plugin.
+   */
+  private Compilation configure(MavenProject module, boolean test) throws Exception {
+    PluginDescriptor pluginDescriptor = mojoExecution.getMojoDescriptor().getPluginDescriptor();
+    Plugin plugin = module.getPlugin(pluginDescriptor.getPluginLookupKey());
+    if (plugin == null) {
+      return null;
+    }
+    String goal = test ? "testCompile" : "compile";
+    MojoDescriptor mojoDescriptor = pluginDescriptor.getMojo(goal);
+
+    // the configuration of the execution of the goal, which includes the one of the plugin
+    Xpp3Dom configuration = (Xpp3Dom) plugin.getConfiguration();
+    for (PluginExecution execution : plugin.getExecutions()) {
+      if (execution.getGoals().contains(goal)) {
+        configuration = (Xpp3Dom) execution.getConfiguration();
+        break;
+      }
+    }
+    MojoExecution execution = new MojoExecution(mojoDescriptor, "compile-all");
+    execution.setConfiguration(finalizeConfiguration(mojoDescriptor, configuration));
+
+    // the parameters like ${project} are evaluated against the current project
+    session.setCurrentProject(module);
+    ScalaCompilerSupport mojo =
+        (ScalaCompilerSupport)
+            pluginManager.getConfiguredMojo(org.apache.maven.plugin.Mojo.class, session, execution);
+    return new Compilation(module, test, execution, mojo);
+  }
+
+  /**
+   * Returns the configuration of the parameters of the mojo, with their default values, like Maven
+   * does for the executions of the lifecycle.
+   */
+  private static Xpp3Dom finalizeConfiguration(
+      MojoDescriptor mojoDescriptor, Xpp3Dom configuration) {
+    if (configuration == null) {
+      configuration = new Xpp3Dom("configuration");
+    }
+    Xpp3Dom defaults = MojoDescriptorCreator.convert(mojoDescriptor);
+    Xpp3Dom finalConfiguration = new Xpp3Dom("configuration");
+    if (mojoDescriptor.getParameters() == null) {
+      return finalConfiguration;
+    }
+    for (org.apache.maven.plugin.descriptor.Parameter parameter : mojoDescriptor.getParameters()) {
+      Xpp3Dom value = configuration.getChild(parameter.getName());
+      if (value == null && parameter.getAlias() != null) {
+        value = configuration.getChild(parameter.getAlias());
+      }
+      value = Xpp3Dom.mergeXpp3Dom(value, defaults.getChild(parameter.getName()), Boolean.TRUE);
+      if (value != null) {
+        value = new Xpp3Dom(value, parameter.getName());
+        if (value.getAttribute("implementation") == null && parameter.getImplementation() != null) {
+          value.setAttribute("implementation", parameter.getImplementation());
+        }
+        finalConfiguration.addChild(value);
+      }
+    }
+    return finalConfiguration;
+  }
+
+  private void addDependencies(
+      Map<String, Compilation> mains,
+      Map<String, Compilation> tests,
+      Map<String, MavenProject> modules)
+      throws Exception {
+    MavenArtifactResolver resolver = new MavenArtifactResolver(factory, session);
+    ScopeArtifactFilter mainScopes = new ScopeArtifactFilter(Artifact.SCOPE_COMPILE);
+    for (Compilation compilation : concat(mains.values(), tests.values())) {
+      compilation.task =
+          new CriticalPathScheduler.Task(
+              compilation.toString(),
+              compilation.sources.stream().mapToLong(File::length).sum(),
+              early -> compile(compilation, early));
+    }
+    for (Compilation compilation : concat(mains.values(), tests.values())) {
+      MavenProject module = compilation.project;
+      if (compilation.test) {
+        Compilation main =
+            mains.get(
+                ArtifactUtils.key(
+                    module.getGroupId(), module.getArtifactId(), module.getVersion()));
+        compilation.upstreams.add(main);
+        compilation.task.dependencies.add(main.task);
+      }
+      for (Artifact artifact : module.getArtifacts()) {
+        if (!compilation.test && !mainScopes.include(artifact)) {
+          continue;
+        }
+        String key =
+            ArtifactUtils.key(
+                artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion());
+        boolean testJar =
+            "test-jar".equals(artifact.getType()) || "tests".equals(artifact.getClassifier());
+        Compilation upstream = testJar ? tests.get(key) : mains.get(key);
+        if (upstream != null) {
+          compilation.upstreams.add(upstream);
+          if (upstream.mojo.pipelining
+              && !upstream.test
+              && !compilation.test
+              && !compilation.hasJavaSources()) {
+            compilation.task.earlyDependencies.add(upstream.task);
+          } else {
+            compilation.task.dependencies.add(upstream.task);
+          }
+        } else if (modules.containsKey(key)) {
+          // a module compiled by other means
+          MavenProject upstreamModule = modules.get(key);
+          compilation.externalClasspath.add(
+              new File(
+                  testJar
+                      ? upstreamModule.getBuild().getTestOutputDirectory()
+                      : upstreamModule.getBuild().getOutputDirectory()));
+        } else if (artifact.getFile() != null) {
+          compilation.externalClasspath.add(artifact.getFile());
+        } else if (!MavenArtifactResolver.POM.equals(artifact.getType())) {
+          compilation.externalClasspath.add(
+              resolver
+                  .getJar(
+                      artifact.getGroupId(),
+                      artifact.getArtifactId(),
+                      artifact.getVersion(),
+                      artifact.getClassifier())
+                  .getFile());
+        }
+      }
+      session.setCurrentProject(module);
+      Set<File> additional = new LinkedHashSet<>();
+      compilation.mojo.addAdditionalDependencies(additional);
+      compilation.externalClasspath.addAll(additional);
+      if (!compilation.sources.isEmpty()) {
+        compilation.compiler = compilation.mojo.makeIncrementalCompiler(compilation.analysisFile);
+      }
+    }
+  }
+
+  private void run(Map<String, Compilation> mains, Map<String, Compilation> tests)
+      throws Exception {
+    List<CriticalPathScheduler.Task> tasks = new ArrayList<>();
+    for (Compilation compilation : concat(mains.values(), tests.values())) {
+      tasks.add(compilation.task);
+    }
+    int nbThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    getLog()
+        .info(
+            String.format(
+                "Compiling %d modules with up to %d concurrent compilations",
+                mains.size(), nbThreads));
+    long start = System.nanoTime();
+    new CriticalPathScheduler(nbThreads).run(tasks);
+    getLog()
+        .info(
+            String.format("compile-all in %.1f s", (System.nanoTime() - start) / 1_000_000_000.0));
+  }
+
+  private static List<Compilation> concat(Collection<Compilation> a, Collection<Compilation> b) {
+    List<Compilation> all = new ArrayList<>(a);
+    all.addAll(b);
+    return all;
+  }
+
+  private void compile(Compilation compilation, Runnable early) throws Exception {
+    if (compilation.compiler == null) {
+      getLog().debug("No sources to compile in " + compilation);
+      compilation.done = true;
+      return;
+    }
+    // the pickles written by an upstream compilation of this build are used until its classes are
+    // compiled, not the ones left by a previous build
+    List<File> classpath = new ArrayList<>();
+    for (Compilation upstream : compilation.upstreams) {
+      if (upstream.earlyOutput && !upstream.done) {
+        classpath.add(SbtIncrementalCompilers.earlyOutputJar(upstream.analysisFile));
+      } else {
+        classpath.add(upstream.outputDir);
+      }
+    }
+    classpath.addAll(compilation.externalClasspath);
+
+    compilation.outputDir.mkdirs();
+    getLog()
+        .info(
+            String.format(
+                "Compiling %s: %d source files to %s",
+                compilation, compilation.sources.size(), compilation.outputDir));
+    long start = System.nanoTime();
+    try {
+      compilation.compiler.compile(
+          classpath,
+          compilation.sources,
+          compilation.outputDir,
+          compilation.scalacOptions,
+          compilation.javacOptions,
+          () -> {
+            compilation.earlyOutput = true;
+            early.run();
+          });
+    } catch (xsbti.CompileFailed e) {
+      throw new MojoFailureException("scala compilation of " + compilation + " failed", e);
+    }
+    compilation.done = true;
+    getLog()
+        .info(
+            String.format(
+                "compile %s in %.1f s",
+                compilation, (System.nanoTime() - start) / 1_000_000_000.0));
+  }
+}
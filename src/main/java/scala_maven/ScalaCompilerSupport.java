@@ -6,11 +6,18 @@ package scala_maven;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Parameter;
+import sbt_inc.AnalysisStoreFormat;
 import sbt_inc.SbtIncrementalCompiler;
+import sbt_inc.SbtIncrementalCompilerSettings;
 import sbt_inc.SbtIncrementalCompilers;
 import scala_maven_dependency.Context;
 import scala_maven_executions.JavaMainCaller;
@@ -62,13 +69,144 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
   @Parameter(property = "secondaryCacheDir")
   private File secondaryCacheDir;
 
+  /**
+   * When the incremental compiler is forked (jvmArgs are defined), keep the forked JVMs alive for
+   * the whole Maven session and reuse them for every compilation sharing the same java executable,
+   * jvmArgs and compiler classpath, instead of starting a new JVM for each compilation.
+   */
+  @Parameter(property = "reuseForkedCompiler", defaultValue = "false")
+  private boolean reuseForkedCompiler;
+
+  /**
+   * Run the incremental compiler in a background daemon JVM (started with jvmArgs, if defined) that
+   * survives between Maven invocations, so the compiler is kept warm from one build to the next.
+   * The daemon is started on demand, listens on a loopback socket and stops after being idle for
+   * compileDaemonIdleTimeout minutes.
+   */
+  @Parameter(property = "useCompileDaemon", defaultValue = "false")
+  private boolean useCompileDaemon;
+
+  /** Idle time, in minutes, after which the compile daemon stops (see useCompileDaemon). */
+  @Parameter(property = "compileDaemonIdleTimeout", defaultValue = "30")
+  private int compileDaemonIdleTimeout;
+
+  /**
+   * Maximum number of Scala compiler instances (and their classloaders) kept for reuse by the
+   * modules and scopes of the build, the least recently used being evicted, so it should be at
+   * least the number of Scala versions of the build. 0, the default, disables the reuse: each
+   * compilation loads the compiler classes again.
+   */
+  @Parameter(property = "scalaInstanceCacheSize", defaultValue = "0")
+  private int scalaInstanceCacheSize;
+
+  /**
+   * Maximum number of compiler bridge classloaders kept for reuse by the compilations of the build,
+   * instead of loading the bridge again for each compilation, the least recently used being
+   * evicted. The classloaders are released when the metaspace is almost full. 0 disables the reuse.
+   */
+  @Parameter(property = "classLoaderCacheSize", defaultValue = "4")
+  private int classLoaderCacheSize;
+
+  /**
+   * Size, in MB of analysis files, of the in-memory cache of the analyses of upstream modules,
+   * shared by the downstream modules and scopes instead of reading the analysis files again for
+   * each compilation. It bounds the size of the files, not of the heap: a loaded analysis takes 10
+   * to 20 times the size of its file, and is softly referenced so it is collected, and loaded again
+   * if needed, when the heap is short. An analysis is reloaded when its file changes. 0 disables
+   * the cache.
+   */
+  @Parameter(property = "analysisCacheSize", defaultValue = "64")
+  private int analysisCacheSize;
+
+  /**
+   * Format of the analysis files written by the incremental compiler: binary (zinc's default,
+   * compressed) or uncompressed (same as binary without compression, so larger files that are
+   * faster to load and store). Analysis files are read whatever their format. The
+   * analysis-benchmark goal measures the formats on a project.
+   */
+  @Parameter(property = "analysisStoreFormat", defaultValue = "binary")
+  private AnalysisStoreFormat analysisStoreFormat;
+
+  /**
+   * Enable zinc build pipelining (Scala 2.12.12+ and 2.13.3+): scalac also writes the pickles of
+   * the module to target/analysis/compile-early.jar (or test-compile-early.jar) right after the
+   * typer phase, with a matching early analysis. A downstream compilation that has this jar on its
+   * classpath can start before the module's code generation and javac are done. Maven itself only
+   * starts a module once its upstream modules are complete, so the jars are used by the scheduler
+   * of the compile-all goal.
+   */
+  @Parameter(property = "pipelining", defaultValue = "false")
+  boolean pipelining;
+
+  /**
+   * Tune zinc's recompileAllFraction and transitiveStep from the invalidation cycles of the last
+   * compilations, so that a module whose incremental compilations keep cascading into more work
+   * than a clean compilation switches to a full recompilation sooner. The cycles of each
+   * compilation are always reported in target/analysis/compile-invalidations.json (or
+   * test-compile-invalidations.json).
+   */
+  @Parameter(property = "adaptiveRecompile", defaultValue = "false")
+  private boolean adaptiveRecompile;
+
+  /**
+   * Keep the analyses in memory in a compact form, sharing the class names and paths of all the
+   * analyses loaded by the JVM instead of holding a copy of each occurrence. Costs some time when
+   * loading and storing an analysis, and reduces the heap used by the analyses of very large
+   * modules, eg during cc. See the heap footprint reported by the analysis-benchmark goal.
+   */
+  @Parameter(property = "compactAnalysis", defaultValue = "false")
+  private boolean compactAnalysis;
+
+  /**
+   * Write the analyses on a background thread, so that a compilation doesn't wait for its analysis
+   * to be serialized, eg before cc handles the next change. The analyses set while one is being
+   * written are coalesced, and the pending writes are done before an analysis file is read again
+   * and when the JVM exits. Only applies to the compiler running in the Maven JVM: forked compilers
+   * write their analyses before answering.
+   */
+  @Parameter(property = "writeBehindAnalysis", defaultValue = "false")
+  private boolean writeBehindAnalysis;
+
+  /**
+   * Maximum number of errors reported by the incremental compiler. All the diagnostics are written
+   * to target/analysis/compile-diagnostics.jsonl (or test-compile-diagnostics.jsonl), one JSON
+   * object per line.
+   */
+  @Parameter(property = "maxErrors", defaultValue = "100")
+  private int maxErrors;
+
+  /**
+   * Maximum number of warnings (and infos) of the incremental compiler logged to the Maven log, the
+   * others being only counted in the summary and written to the diagnostics file (see maxErrors).
+   */
+  @Parameter(property = "maxLoggedWarnings", defaultValue = "100")
+  private int maxLoggedWarnings;
+
+  /**
+   * Other Scala versions to compile the same sources with, concurrently with the Scala version of
+   * the project, eg to publish a library for 2.12, 2.13 and 3 from one execution. Each version uses
+   * its own compiler and bridge, and writes to its own directories, eg target/scala-2.12.18/classes
+   * and target/analysis/scala-2.12.18/compile. On the classpath, the Scala library is replaced by
+   * the one of the version, and dependencies suffixed by the binary version of the project (eg
+   * _2.13) by the same artifacts suffixed by the binary version of the cross version. The scalac
+   * options are the ones of each version: the compiler plugins suffixed by the full or binary
+   * version of the project are replaced the same way, and the bytecode version options follow the
+   * version. Requires the incremental recompileMode.
+   */
+  @Parameter(property = "crossScalaVersions")
+  private String[] crossScalaVersions;
+
   protected abstract File getOutputDir() throws Exception;
 
   protected abstract Set<File> getClasspathElements() throws Exception;
 
   private long _lastCompileAt = -1;
 
-  private SbtIncrementalCompiler incremental;
+  // by analysis cache file, cc compiling the main and test sources in loop
+  private final Map<File, SbtIncrementalCompiler> incrementals = new HashMap<>();
+
+  // sources of the compiles in loop, by source root dirs, updated from the changed files
+  private final Map<List<File>, List<File>> sourcesInLoop = new HashMap<>();
 
   /** Analysis cache file for incremental recompilation. */
   protected abstract File getAnalysisCacheFile() throws Exception;
@@ -82,6 +220,10 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
     }
     File outputDir = FileUtils.fileOf(getOutputDir(), useCanonicalPath);
     File analysisCacheFile = FileUtils.fileOf(getAnalysisCacheFile(), useCanonicalPath);
+    if (crossScalaVersions != null && crossScalaVersions.length > 0) {
+      crossCompile(outputDir, analysisCacheFile);
+      return;
+    }
     int nbFiles =
         compile(
             getSourceDirectories(), outputDir, analysisCacheFile, getClasspathElements(), false);
@@ -112,12 +254,35 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
       Set<File> classpathElements,
       boolean compileInLoop)
       throws Exception {
+    return compile(
+        sourceRootDirs, outputDir, analysisCacheFile, classpathElements, compileInLoop, null);
+  }
+
+  /**
+   * Same as {@link #compile(List, File, File, Set, boolean)}, with the files changed since the
+   * previous compile in loop, as seen by a file watcher, or null if unknown. With the incremental
+   * recompileMode, the source directories are not scanned again and only the changed sources are
+   * stamped again.
+   */
+  protected int compile(
+      List<File> sourceRootDirs,
+      File outputDir,
+      File analysisCacheFile,
+      Set<File> classpathElements,
+      boolean compileInLoop,
+      Collection<File> changedFiles)
+      throws Exception {
+    // zinc finds the changed sources, cc only compiles in loop when its watcher sees changes
+    if (compileInLoop && recompileMode == RecompileMode.incremental) {
+      return incrementalCompile(
+          classpathElements, sourceRootDirs, outputDir, analysisCacheFile, true, changedFiles);
+    }
     if (!compileInLoop && recompileMode == RecompileMode.incremental) {
       // if not compileInLoop, invoke incrementalCompile immediately
       long n0 = System.nanoTime();
       int res =
           incrementalCompile(
-              classpathElements, sourceRootDirs, outputDir, analysisCacheFile, false);
+              classpathElements, sourceRootDirs, outputDir, analysisCacheFile, false, null);
       getLog().info(String.format("compile in %.1f s", (System.nanoTime() - n0) / 1_000_000_000.0));
       return res;
     }
@@ -144,17 +309,6 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
     long n1 = System.nanoTime();
     long t1 = t0 + ((n1 - n0) / 1_000_000);
 
-    if (compileInLoop && recompileMode == RecompileMode.incremental) {
-      // if compileInLoop, do not invoke incrementalCompile when there's no change
-      int retCode =
-          incrementalCompile(classpathElements, sourceRootDirs, outputDir, analysisCacheFile, true);
-      _lastCompileAt = t1;
-      if (retCode == 1) {
-        lastCompilationInfo.setLastSuccessfulTS(t1);
-      }
-      return retCode;
-    }
-
     getLog()
         .info(
             String.format(
@@ -185,6 +339,28 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
     return files.size();
   }
 
+  /**
+   * Returns true if one of the changed files is, or was, a source of the previous compile in loop
+   * of the source root dirs, or is a new source, so they have to be compiled again.
+   */
+  boolean hasSourceChanges(List<File> sourceRootDirs, Collection<File> changedFiles)
+      throws Exception {
+    List<File> previousSources = sourcesInLoop.get(sourceRootDirs);
+    if (previousSources == null) {
+      return true;
+    }
+    List<File> sources = updateSourceWithFilters(sourceRootDirs, previousSources, changedFiles);
+    if (!sources.equals(previousSources)) {
+      return true;
+    }
+    for (File changedFile : changedFiles) {
+      if (Collections.binarySearch(sources, FileUtils.fileOf(changedFile, useCanonicalPath)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   /** Returns true if the previous compile failed */
   boolean hasCompileErrors() {
     return compileErrors;
@@ -285,9 +461,25 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
       List<File> sourceRootDirs,
       File outputDir,
       File cacheFile,
-      boolean compileInLoop)
+      boolean compileInLoop,
+      Collection<File> changedFiles)
       throws Exception {
-    List<File> sources = findSourceWithFilters(sourceRootDirs);
+    List<File> sources;
+    List<File> previousSources = sourcesInLoop.get(sourceRootDirs);
+    // the changed files are only known relative to the previous compile in loop
+    Collection<File> changedSources = null;
+    if (changedFiles != null && previousSources != null) {
+      sources = updateSourceWithFilters(sourceRootDirs, previousSources, changedFiles);
+      changedSources = new ArrayList<>(changedFiles.size());
+      for (File changedFile : changedFiles) {
+        changedSources.add(FileUtils.fileOf(changedFile, useCanonicalPath));
+      }
+    } else {
+      sources = findSourceWithFilters(sourceRootDirs);
+    }
+    if (compileInLoop) {
+      sourcesInLoop.put(sourceRootDirs, sources);
+    }
     if (sources.isEmpty()) {
       return -1;
     }
@@ -297,33 +489,20 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
       outputDir.mkdirs();
     }
 
+    SbtIncrementalCompiler incremental = incrementals.get(cacheFile);
     if (incremental == null) {
-      Context sc = findScalaContext();
-      File javaHome = JavaLocator.findHomeFromToolchain(getToolchain());
-
-      incremental =
-          SbtIncrementalCompilers.make(
-              javaHome,
-              new MavenArtifactResolver(factory, session),
-              secondaryCacheDir,
-              getLog(),
-              cacheFile,
-              compileOrder,
-              sc.version(),
-              sc.findCompilerAndDependencies().stream()
-                  .map(Artifact::getFile)
-                  .collect(Collectors.toList()),
-              sc.findLibraryAndDependencies().stream()
-                  .map(Artifact::getFile)
-                  .collect(Collectors.toList()),
-              jvmArgs,
-              JavaLocator.findExecutableFromToolchain(getToolchain()),
-              pluginArtifacts.stream().map(Artifact::getFile).collect(Collectors.toList()));
+      incremental = makeIncrementalCompiler(cacheFile);
+      incrementals.put(cacheFile, incremental);
     }
 
     try {
       incremental.compile(
-          classpathElements, sources, outputDir, getScalacOptions(), getJavacOptions());
+          classpathElements,
+          sources,
+          outputDir,
+          getScalacOptions(),
+          getJavacOptions(),
+          changedSources);
     } catch (xsbti.CompileFailed e) {
       if (compileInLoop) {
         compileErrors = true;
@@ -334,4 +513,214 @@ public abstract class ScalaCompilerSupport extends ScalaSourceMojoSupport {
 
     return 1;
   }
+
+  /**
+   * Compiles the sources with the Scala version of the project and the crossScalaVersions at the
+   * same time, each on its own thread.
+   */
+  private void crossCompile(File outputDir, File analysisCacheFile) throws Exception {
+    if (recompileMode != RecompileMode.incremental) {
+      throw new MojoFailureException("crossScalaVersions requires the incremental recompileMode");
+    }
+    List<File> sources = findSourceWithFilters(getSourceDirectories());
+    if (sources.isEmpty()) {
+      getLog().info("No sources to compile");
+      return;
+    }
+    // the options, classpaths and compilers of the versions are resolved upfront, on this thread
+    List<String> javacOptions = getJavacOptions();
+    Context projectContext = findScalaContext();
+    Set<File> classpathElements = getClasspathElements();
+
+    Map<String, Callable<Void>> compilations = new LinkedHashMap<>();
+    SbtIncrementalCompiler projectCompiler =
+        makeIncrementalCompiler(analysisCacheFile, projectContext);
+    List<String> scalacOptions = getScalacOptions(projectContext);
+    compilations.put(
+        projectContext.version().toString(),
+        () -> {
+          crossCompile(
+              projectContext.version(),
+              projectCompiler,
+              classpathElements,
+              sources,
+              outputDir,
+              scalacOptions,
+              javacOptions);
+          return null;
+        });
+    for (String crossScalaVersion : crossScalaVersions) {
+      VersionNumber scalaVersion = new VersionNumber(crossScalaVersion.trim());
+      if (compilations.containsKey(scalaVersion.toString())) {
+        continue;
+      }
+      Context context = makeScalaContext(scalaVersion);
+      Set<File> crossClasspathElements =
+          crossClasspathElements(classpathElements, projectContext, context);
+      File crossOutputDir = crossFile(outputDir, scalaVersion);
+      SbtIncrementalCompiler crossCompiler =
+          makeIncrementalCompiler(crossFile(analysisCacheFile, scalaVersion), context);
+      List<String> crossScalacOptions = getScalacOptions(context);
+      compilations.put(
+          scalaVersion.toString(),
+          () -> {
+            crossCompile(
+                scalaVersion,
+                crossCompiler,
+                crossClasspathElements,
+                sources,
+                crossOutputDir,
+                crossScalacOptions,
+                javacOptions);
+            return null;
+          });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(compilations.size());
+    try {
+      Map<String, Future<Void>> results = new LinkedHashMap<>();
+      for (Map.Entry<String, Callable<Void>> compilation : compilations.entrySet()) {
+        results.put(compilation.getKey(), executor.submit(compilation.getValue()));
+      }
+      List<String> failed = new ArrayList<>();
+      for (Map.Entry<String, Future<Void>> result : results.entrySet()) {
+        try {
+          result.getValue().get();
+        } catch (ExecutionException e) {
+          if (!(e.getCause() instanceof xsbti.CompileFailed)) {
+            getLog().error("Scala " + result.getKey() + ": compilation error", e.getCause());
+          }
+          failed.add(result.getKey());
+        }
+      }
+      if (!failed.isEmpty()) {
+        throw new MojoFailureException(
+            "scala compilation failed for Scala " + String.join(", ", failed));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void crossCompile(
+      VersionNumber scalaVersion,
+      SbtIncrementalCompiler compiler,
+      Set<File> classpathElements,
+      List<File> sources,
+      File outputDir,
+      List<String> scalacOptions,
+      List<String> javacOptions) {
+    long n0 = System.nanoTime();
+    outputDir.mkdirs();
+    compiler.compile(classpathElements, sources, outputDir, scalacOptions, javacOptions);
+    getLog()
+        .info(
+            String.format(
+                "Scala %s: compile to %s in %.1f s",
+                scalaVersion, outputDir, (System.nanoTime() - n0) / 1_000_000_000.0));
+  }
+
+  /** Returns the file of a cross Scala version, eg target/scala-2.12.18/classes. */
+  private static File crossFile(File file, VersionNumber scalaVersion) {
+    return new File(new File(file.getParentFile(), "scala-" + scalaVersion), file.getName());
+  }
+
+  /**
+   * Returns the classpath of a cross Scala version: the library of the version instead of the one
+   * of the project, the cross built dependencies of the version, and the main classes of the
+   * version for the tests.
+   */
+  private Set<File> crossClasspathElements(
+      Set<File> classpathElements, Context projectContext, Context context) throws Exception {
+    Set<File> projectLibrary = new HashSet<>();
+    for (Artifact artifact : projectContext.findLibraryAndDependencies()) {
+      projectLibrary.add(artifact.getFile());
+    }
+    Map<File, Artifact> artifacts = new HashMap<>();
+    for (Artifact artifact : project.getArtifacts()) {
+      if (artifact.getFile() != null) {
+        artifacts.put(artifact.getFile(), artifact);
+      }
+    }
+    File mainOutputDir = new File(project.getBuild().getOutputDirectory());
+
+    Set<File> crossClasspathElements = new LinkedHashSet<>();
+    for (Artifact artifact : context.findLibraryAndDependencies()) {
+      crossClasspathElements.add(artifact.getFile());
+    }
+    for (File element : classpathElements) {
+      Artifact artifact = artifacts.get(element);
+      String artifactId =
+          artifact == null
+              ? null
+              : crossArtifactId(
+                  artifact.getArtifactId(), projectContext.version(), context.version());
+      if (projectLibrary.contains(element)) {
+        continue;
+      } else if (element.equals(mainOutputDir)) {
+        crossClasspathElements.add(crossFile(element, context.version()));
+      } else if (artifact != null && !artifactId.equals(artifact.getArtifactId())) {
+        crossClasspathElements.add(
+            findMavenArtifactResolver()
+                .getJar(
+                    artifact.getGroupId(),
+                    artifactId,
+                    artifact.getVersion(),
+                    artifact.getClassifier())
+                .getFile());
+      } else {
+        crossClasspathElements.add(element);
+      }
+    }
+    return crossClasspathElements;
+  }
+
+  /**
+   * Returns an incremental compiler storing its analysis in the cache file, configured by the
+   * parameters of this mojo. The underlying Scala and zinc compilers are shared between the
+   * returned compilers.
+   */
+  SbtIncrementalCompiler makeIncrementalCompiler(File cacheFile) throws Exception {
+    return makeIncrementalCompiler(cacheFile, findScalaContext());
+  }
+
+  private SbtIncrementalCompiler makeIncrementalCompiler(File cacheFile, Context sc)
+      throws Exception {
+    File javaHome = JavaLocator.findHomeFromToolchain(getToolchain());
+
+    SbtIncrementalCompilerSettings settings = new SbtIncrementalCompilerSettings();
+    settings.compileOrder = compileOrder;
+    settings.analysisStoreFormat = analysisStoreFormat;
+    settings.compactAnalysis = compactAnalysis;
+    settings.pipelining = pipelining;
+    settings.adaptiveRecompile = adaptiveRecompile;
+    settings.maxErrors = maxErrors;
+    settings.maxLoggedWarnings = maxLoggedWarnings;
+    settings.scalaInstanceCacheSize = scalaInstanceCacheSize;
+    settings.classLoaderCacheSize = classLoaderCacheSize;
+    settings.analysisCacheSize = analysisCacheSize;
+    settings.writeBehindAnalysis = writeBehindAnalysis;
+    settings.jvmArgs = jvmArgs;
+    settings.javaExec = JavaLocator.findExecutableFromToolchain(getToolchain());
+    settings.forkClasspath =
+        pluginArtifacts.stream().map(Artifact::getFile).collect(Collectors.toList());
+    settings.reuseForkedCompiler = reuseForkedCompiler;
+    settings.useCompileDaemon = useCompileDaemon;
+    settings.compileDaemonIdleTimeout = compileDaemonIdleTimeout;
+
+    return SbtIncrementalCompilers.make(
+        javaHome,
+        new MavenArtifactResolver(factory, session),
+        secondaryCacheDir,
+        getLog(),
+        cacheFile,
+        sc.version(),
+        sc.findCompilerAndDependencies().stream()
+            .map(Artifact::getFile)
+            .collect(Collectors.toList()),
+        sc.findLibraryAndDependencies().stream()
+            .map(Artifact::getFile)
+            .collect(Collectors.toList()),
+        settings);
+  }
 }
@@ -96,6 +96,22 @@ public class ScalaContinuousCompileMojo extends ScalaCompilerSupport {
   @Parameter(property = "verbose", defaultValue = "false")
   protected boolean verbose;
 
+  /**
+   * Delay in milliseconds without other changes to the source directories before compiling after a
+   * change, so that the files saved together, eg by a refactoring or a git checkout, are compiled
+   * together.
+   */
+  @Parameter(property = "watchDebounce", defaultValue = "200")
+  protected long watchDebounce;
+
+  /**
+   * Time in milliseconds from which the compilations haven't been followed by postCompileActions
+   * yet, eg to find the classes they compiled, 0 before the first postCompileActions.
+   *
+   * <p>Note: Allows extending for 3rd-party usages
+   */
+  protected long compiledSince;
+
   @Override
   protected Set<File> getClasspathElements() {
     throw new UnsupportedOperationException("USELESS");
@@ -163,50 +179,66 @@ public class ScalaContinuousCompileMojo extends ScalaCompilerSupport {
     }
 
     getLog().info("wait for files to compile...");
-    do {
-      clearCompileErrors();
-
-      int nbFile = 0;
-      if (!mainSourceDirs.isEmpty()) {
-        nbFile =
-            compile(
-                mainSourceDirs,
-                mainOutputDir,
-                analysisCacheFile,
-                FileUtils.fromStrings(project.getCompileClasspathElements()),
-                true);
-        // If there are no source files, the compile method returns -1. Thus, to make
-        // sure we
-        // still run the tests if there are test sources, reset nbFile to zero.
-        if (nbFile == -1) nbFile = 0;
-      }
-      if (!testSourceDirs.isEmpty()) {
-        nbFile +=
-            compile(
-                testSourceDirs,
-                testOutputDir,
-                testAnalysisCacheFile,
-                FileUtils.fromStrings(project.getTestClasspathElements()),
-                true);
-      }
-      if (nbFile > 0) {
-        if (!hasCompileErrors()) {
-          postCompileActions();
-        } else {
-          getLog().info("Not running test cases due to compile error");
+    List<File> sourceDirs = new ArrayList<>(mainSourceDirs);
+    sourceDirs.addAll(testSourceDirs);
+    // registered before the first compile, so that no change is missed
+    try (SourceWatcher watcher = once ? null : new SourceWatcher(sourceDirs)) {
+      // null for the first compile, or when changes were lost, to look for the changed files
+      Set<File> changedFiles = null;
+      do {
+        clearCompileErrors();
+
+        boolean mainChanged =
+            changedFiles == null || hasSourceChanges(mainSourceDirs, changedFiles);
+        boolean testChanged =
+            changedFiles == null || hasSourceChanges(testSourceDirs, changedFiles);
+        int nbFile = 0;
+        if (!mainSourceDirs.isEmpty() && mainChanged) {
+          nbFile =
+              compile(
+                  mainSourceDirs,
+                  mainOutputDir,
+                  analysisCacheFile,
+                  FileUtils.fromStrings(project.getCompileClasspathElements()),
+                  true,
+                  changedFiles);
+          // If there are no source files, the compile method returns -1. Thus, to make
+          // sure we
+          // still run the tests if there are test sources, reset nbFile to zero.
+          if (nbFile == -1) nbFile = 0;
+        }
+        // the test sources are compiled again against the main classes
+        if (!testSourceDirs.isEmpty() && (mainChanged || testChanged)) {
+          nbFile +=
+              compile(
+                  testSourceDirs,
+                  testOutputDir,
+                  testAnalysisCacheFile,
+                  FileUtils.fromStrings(project.getTestClasspathElements()),
+                  true,
+                  changedFiles);
         }
-      }
-      if (!once) {
         if (nbFile > 0) {
-          getLog().info("wait for files to compile...");
-          Thread.sleep(5000);
-        } else {
-          Thread.sleep(3000);
+          if (!hasCompileErrors()) {
+            postCompileActions();
+            compiledSince = System.currentTimeMillis();
+          } else {
+            getLog().info("Not running test cases due to compile error");
+          }
         }
-      } else if (hasCompileErrors()) {
-        throw new MojoFailureException("scala compilation failed");
-      }
-    } while (!once);
+        if (!once) {
+          if (nbFile > 0) {
+            getLog().info("wait for files to compile...");
+          }
+          changedFiles = watcher.awaitChanges(watchDebounce);
+          if (changedFiles != null) {
+            getLog().debug("changed files: " + changedFiles);
+          }
+        } else if (hasCompileErrors()) {
+          throw new MojoFailureException("scala compilation failed");
+        }
+      } while (!once);
+    }
   }
 
   /**
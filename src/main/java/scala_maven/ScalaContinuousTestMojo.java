@@ -6,8 +6,13 @@ package scala_maven;
 
 import java.io.File;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import org.apache.maven.BuildFailureException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -21,6 +26,7 @@ import org.apache.maven.shared.invoker.MavenCommandLineBuilder;
 import org.apache.maven.shared.invoker.MavenInvocationException;
 import org.apache.maven.shared.invoker.SystemOutHandler;
 import org.codehaus.plexus.util.StringUtils;
+import sbt_inc.TestImpact;
 
 /**
  * Compile the main and test scala source directory then run unit test cases in continuous (infinite
@@ -82,9 +88,61 @@ public class ScalaContinuousTestMojo extends ScalaContinuousCompileMojo {
   @Parameter(property = "cctest.goals", defaultValue = "surefire:test")
   private String ccTestGoals;
 
+  public enum TestRunner {
+    maven,
+    inProcess
+  }
+
+  /**
+   * How the tests are run after each compilation: maven runs ccTestGoals in a nested Maven build,
+   * inProcess runs the tests in the JVM of cctest with the JUnit Platform launcher, the ScalaTest
+   * runner or JUnit 4, the first one found on the test classpath, without building the project
+   * again nor forking a JVM. The classloader of the dependencies is kept between the runs, so the
+   * tests of a JVM share their static state, like with surefire's forkCount=1 and reuseForks. Falls
+   * back to maven when no supported test framework is found.
+   *
+   * <pre>
+   *   mvn -Dcctest.runner=inProcess scala:cctest
+   * </pre>
+   */
+  @Parameter(property = "cctest.runner", defaultValue = "maven")
+  private TestRunner ccTestRunner;
+
+  /**
+   * Run only the test classes affected by the changes compiled since the previous run, ie depending
+   * directly or transitively on a recompiled class, as recorded by the incremental compiler in the
+   * main and test analyses. All the tests run the first time, and when the analyses are missing, eg
+   * with another recompileMode than incremental. The dependencies not seen by the compiler, like a
+   * class loaded by name or a resource, are not followed.
+   *
+   * <pre>
+   *   mvn -Dcctest.affectedOnly=false scala:cctest
+   * </pre>
+   */
+  @Parameter(property = "cctest.affectedOnly", defaultValue = "true")
+  private boolean ccTestAffectedOnly;
+
+  private InProcessTestRunner inProcessTestRunner;
+
   @Override
   protected void postCompileActions() throws Exception {
-    if (test == null) {
+    Set<String> affectedClasses = affectedClasses();
+    if (ccTestRunner == TestRunner.inProcess && runTestsInProcess(affectedClasses)) {
+      return;
+    }
+    String tests = test;
+    if (affectedClasses != null) {
+      Pattern pattern = InProcessTestRunner.testPattern(test);
+      tests =
+          affectedClasses.stream()
+              .filter(name -> !name.contains("$") && pattern.matcher(name).matches())
+              .collect(Collectors.joining(","));
+      if (tests.isEmpty()) {
+        getLog().info("No test affected by the changes");
+        return;
+      }
+      getLog().info("Now running the tests affected by the changes: " + tests);
+    } else if (test == null) {
       getLog()
           .info("Now running all the unit tests. Use -Dtest=FooTest to run a single test by name");
     } else {
@@ -102,9 +160,9 @@ public class ScalaContinuousTestMojo extends ScalaContinuousCompileMojo {
     request.setGoals(getMavenGoals());
     request.setOffline(false);
 
-    if (test != null) {
+    if (tests != null) {
       Properties properties = new Properties();
-      properties.put("test", test);
+      properties.put("test", tests);
       request.setProperties(properties);
     }
 
@@ -124,6 +182,44 @@ public class ScalaContinuousTestMojo extends ScalaContinuousCompileMojo {
     }
   }
 
+  // the binary names of the classes affected by the changes since the previous run, null for all
+  private Set<String> affectedClasses() {
+    if (!ccTestAffectedOnly || compiledSince == 0 || recompileMode != RecompileMode.incremental) {
+      return null;
+    }
+    return TestImpact.affectedClasses(
+            Arrays.asList(analysisCacheFile, testAnalysisCacheFile),
+            compiledSince,
+            Collections.emptyList(),
+            getLog())
+        .orElse(null);
+  }
+
+  // false if no supported test framework is found
+  private boolean runTestsInProcess(Set<String> affectedClasses) throws Exception {
+    if (inProcessTestRunner == null) {
+      inProcessTestRunner = new InProcessTestRunner(getLog());
+    }
+    Optional<Boolean> passed =
+        inProcessTestRunner.run(
+            project.getTestClasspathElements().stream().map(File::new).collect(Collectors.toList()),
+            testOutputDir,
+            test,
+            affectedClasses);
+    if (!passed.isPresent()) {
+      getLog()
+          .warn(
+              "no JUnit Platform launcher, ScalaTest or JUnit 4 on the test classpath, running "
+                  + ccTestGoals);
+      ccTestRunner = TestRunner.maven;
+      return false;
+    }
+    if (!passed.get()) {
+      getLog().warn("Tests failed");
+    }
+    return true;
+  }
+
   private List<String> getMavenGoals() {
     getLog().debug("Running tests with goal(s): " + ccTestGoals);
     return Arrays.asList(StringUtils.split(ccTestGoals, " "));
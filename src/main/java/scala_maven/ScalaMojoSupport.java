@@ -258,6 +258,17 @@ public abstract class ScalaMojoSupport extends AbstractMojo {
     return scalaContext;
   }
 
+  /**
+   * Returns the context of another Scala version than the one of the project, resolved from the
+   * repositories, eg to cross compile.
+   */
+  Context makeScalaContext(VersionNumber scalaVersion) {
+    ArtifactIds aids =
+        scalaVersion.major == 3 ? new ArtifactIds4Scala3(scalaVersion) : new ArtifactIds4Scala2();
+    return new Context4ScalaRemote(
+        scalaVersion, scalaVersion, aids, scalaOrganization, findMavenArtifactResolver());
+  }
+
   protected void addToClasspath(
       String groupId,
       String artifactId,
@@ -646,13 +657,21 @@ public abstract class ScalaMojoSupport extends AbstractMojo {
   }
 
   protected List<String> getScalacOptions() throws Exception {
+    return getScalacOptions(findScalaContext());
+  }
+
+  /**
+   * Returns the scalac options for the Scala version of the context, eg of a cross Scala version:
+   * the compiler plugins and the bytecode version options are the ones of this version.
+   */
+  List<String> getScalacOptions(Context context) throws Exception {
     List<String> options = new ArrayList<>();
     if (args != null) Collections.addAll(options, args);
     if (StringUtils.isNotEmpty(addScalacArgs)) {
       Collections.addAll(options, StringUtils.split(addScalacArgs, "|"));
     }
-    options.addAll(getCompilerPluginOptions());
-    options.addAll(computeBytecodeVersionOptions(target, release, findScalaVersion()));
+    options.addAll(getCompilerPluginOptions(context));
+    options.addAll(computeBytecodeVersionOptions(target, release, context.version()));
 
     return options;
   }
@@ -703,38 +722,45 @@ public abstract class ScalaMojoSupport extends AbstractMojo {
    * @throws Exception
    */
   protected void addCompilerPluginOptions(JavaMainCaller scalac) throws Exception {
-    for (String option : getCompilerPluginOptions()) {
+    for (String option : getCompilerPluginOptions(findScalaContext())) {
       scalac.addArgs(option);
     }
   }
 
-  private List<String> getCompilerPluginOptions() throws Exception {
+  private List<String> getCompilerPluginOptions(Context context) throws Exception {
     List<String> options = new ArrayList<>();
-    for (File plugin : getCompilerPlugins()) {
+    for (File plugin : getCompilerPlugins(context)) {
       options.add("-Xplugin:" + plugin.getPath());
     }
     return options;
   }
 
   /**
-   * Retrieves a list of paths to scala compiler plugins.
+   * Retrieves a list of paths to scala compiler plugins, built for the Scala version of the
+   * context.
    *
    * @return The list of plugins
    * @throws Exception
    */
-  private Set<File> getCompilerPlugins() throws Exception {
+  private Set<File> getCompilerPlugins(Context context) throws Exception {
     Set<File> plugins = new TreeSet<>();
     if (compilerPlugins != null) {
       Set<File> ignoreClasspath = new TreeSet<>();
-      addCompilerToClasspath(ignoreClasspath);
-      addLibraryToClasspath(ignoreClasspath);
+      for (Artifact dep : context.findCompilerAndDependencies()) {
+        ignoreClasspath.add(dep.getFile());
+      }
+      for (Artifact dep : context.findLibraryAndDependencies()) {
+        ignoreClasspath.add(dep.getFile());
+      }
+      VersionNumber projectVersion = findScalaVersion();
       for (BasicArtifact artifact : compilerPlugins) {
         getLog().info("compiler plugin: " + artifact.toString());
-        // TODO - Ensure proper scala version for plugins
+        // a plugin is built for the full or binary Scala version, eg kind-projector_2.13.11
+        String artifactId = crossArtifactId(artifact.artifactId, projectVersion, context.version());
         Set<File> pluginClassPath = new TreeSet<>();
         addToClasspath(
             artifact.groupId,
-            artifact.artifactId,
+            artifactId,
             artifact.version,
             artifact.classifier,
             pluginClassPath,
@@ -745,4 +771,25 @@ public abstract class ScalaMojoSupport extends AbstractMojo {
     }
     return plugins;
   }
+
+  /**
+   * Returns the artifactId of the artifact built for another Scala version, replacing its suffix of
+   * the full or binary Scala version, eg foo_2.13 for 2.12 is foo_2.12. Returns the artifactId
+   * unchanged if it has no such suffix.
+   */
+  static String crossArtifactId(String artifactId, VersionNumber from, VersionNumber to) {
+    if (artifactId.endsWith("_" + from)) {
+      return artifactId.substring(0, artifactId.length() - from.toString().length()) + to;
+    }
+    String binaryFrom = binaryVersion(from);
+    if (artifactId.endsWith("_" + binaryFrom)) {
+      return artifactId.substring(0, artifactId.length() - binaryFrom.length()) + binaryVersion(to);
+    }
+    return artifactId;
+  }
+
+  /** Returns the binary version of a Scala version, eg 2.13 or 3. */
+  static String binaryVersion(VersionNumber scalaVersion) {
+    return scalaVersion.major == 3 ? "3" : scalaVersion.major + "." + scalaVersion.minor;
+  }
 }
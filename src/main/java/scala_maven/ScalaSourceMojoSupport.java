@@ -6,6 +6,7 @@ package scala_maven;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -114,6 +115,37 @@ public abstract class ScalaSourceMojoSupport extends ScalaMojoSupport {
     return sourceFiles;
   }
 
+  /**
+   * Returns the sources of {@link #findSourceWithFilters(List)} updated with the files changed
+   * since they were found, created, modified or deleted, without scanning the directories again.
+   */
+  List<File> updateSourceWithFilters(
+      List<File> sourceRootDirs, List<File> sourceFiles, Collection<File> changedFiles)
+      throws Exception {
+    initFilters();
+    String[] includesArray = includes.toArray(new String[] {});
+    String[] excludesArray = excludes.toArray(new String[] {});
+    TreeSet<File> updated = new TreeSet<>(sourceFiles);
+    for (File changed : changedFiles) {
+      File changedFile = FileUtils.fileOf(changed, useCanonicalPath);
+      // a deleted directory deletes its sources
+      updated.removeIf(source -> source.toPath().startsWith(changedFile.toPath()));
+      if (!changedFile.isFile()) {
+        continue;
+      }
+      for (File dir : sourceRootDirs) {
+        if (changedFile.toPath().startsWith(dir.toPath())) {
+          String relativePath = dir.toPath().relativize(changedFile.toPath()).toString();
+          if (MainHelper.isIncluded(relativePath, includesArray, excludesArray)) {
+            updated.add(changedFile);
+          }
+          break;
+        }
+      }
+    }
+    return new ArrayList<>(updated);
+  }
+
   /** This limits the source directories to only those that exist for real. */
   List<File> normalize(List<String> compileSourceRootsList) throws Exception {
     List<File> newCompileSourceRootsList = new ArrayList<>();
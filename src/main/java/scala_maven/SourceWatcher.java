@@ -0,0 +1,101 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the source directories of cc, and their sub directories as they are created, for the
+ * files created, modified or deleted, instead of scanning the directories in loop.
+ */
+final class SourceWatcher implements Closeable {
+
+  private final WatchService watchService;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+
+  SourceWatcher(Collection<File> roots) throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+    for (File root : roots) {
+      if (root.isDirectory()) {
+        register(root.toPath(), new LinkedHashSet<>());
+      }
+    }
+  }
+
+  /**
+   * Waits for a change, then until no other change happens for the debounce delay, eg while an
+   * editor or a git checkout writes several files, and returns the changed files. Returns null if
+   * changes were lost, the directories having to be scanned again.
+   */
+  Set<File> awaitChanges(long debounceMillis) throws IOException, InterruptedException {
+    Set<File> changed = new LinkedHashSet<>();
+    boolean lost = false;
+    WatchKey key = watchService.take();
+    while (key != null) {
+      Path dir = directories.get(key);
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == OVERFLOW || dir == null) {
+          lost = true;
+          continue;
+        }
+        Path path = dir.resolve((Path) event.context());
+        changed.add(path.toFile());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+          // the files written in the directory before it was registered are not notified
+          register(path, changed);
+        }
+      }
+      if (!key.reset()) {
+        directories.remove(key);
+      }
+      key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+    }
+    return lost ? null : changed;
+  }
+
+  private void register(Path root, Set<File> files) throws IOException {
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            directories.put(
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            files.add(file.toFile());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  @Override
+  public void close() throws IOException {
+    watchService.close();
+  }
+}
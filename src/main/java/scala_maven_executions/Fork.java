@@ -15,8 +15,6 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
 import java.util.stream.Collectors;
-import org.apache.commons.exec.*;
-import org.apache.maven.plugin.MojoFailureException;
 
 /**
  * Run a forked Java process, based on a generated booter jar. The classpath is passed as a manifest
@@ -78,22 +76,37 @@ public final class Fork {
     return value;
   }
 
-  public void run(OutputStream os) throws Exception {
-    File booterJar = createBooterJar(classpath, ForkMain.class.getName(), args);
+  /**
+   * Start the forked process without waiting for it to complete, so the caller can talk to it
+   * through its standard input and output. The error stream is inherited, so the output stream only
+   * carries what the forked main writes to it.
+   */
+  public Process start() throws Exception {
+    return start(new ProcessBuilder().redirectError(ProcessBuilder.Redirect.INHERIT));
+  }
+
+  /**
+   * Start the forked process without waiting for it to complete, appending its output and error
+   * streams to a file, eg for a background process that may outlive this JVM.
+   */
+  public Process start(File outputFile) throws Exception {
+    return start(
+        new ProcessBuilder()
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(outputFile)));
+  }
 
-    CommandLine command = new CommandLine(toWindowsShortName(javaExecutable.getCanonicalPath()));
-    command.addArguments(jvmArgs, false);
-    command.addArgument("-jar");
-    command.addArgument(booterJar.getCanonicalPath());
-    command.addArgument(mainClassName);
+  private Process start(ProcessBuilder processBuilder) throws Exception {
+    File booterJar = createBooterJar(classpath, ForkMain.class.getName(), args);
 
-    Executor exec = new DefaultExecutor();
-    exec.setStreamHandler(new PumpStreamHandler(os));
+    List<String> command = new ArrayList<>();
+    command.add(toWindowsShortName(javaExecutable.getCanonicalPath()));
+    command.addAll(Arrays.asList(jvmArgs));
+    command.add("-jar");
+    command.add(booterJar.getCanonicalPath());
+    command.add(mainClassName);
 
-    int exitValue = exec.execute(command);
-    if (exitValue != 0) {
-      throw new MojoFailureException("command line returned non-zero value:" + exitValue);
-    }
+    return processBuilder.command(command).start();
   }
 
   /**
@@ -21,10 +21,7 @@ public final class ForkMain {
       String[] argsFromFile = readArgFile(cl);
       runMain(cl, args[0], argsFromFile);
     } catch (Throwable t) {
-      PrintWriter stacktrace = new PrintWriter(new StringWriter());
-      t.printStackTrace(stacktrace);
-      System.out.println(ForkLogLevel.ERROR.addHeader(stacktrace.toString()));
-      System.out.flush();
+      t.printStackTrace();
       System.exit(-1);
     }
   }
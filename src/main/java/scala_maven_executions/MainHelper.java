@@ -43,6 +43,26 @@ public class MainHelper {
     return scanner.getIncludedFiles();
   }
 
+  /**
+   * Returns true if the file at the relative path of a directory would be found by {@link
+   * #findFiles} with the same includes and excludes.
+   */
+  public static boolean isIncluded(String relativePath, String[] includes, String[] excludes) {
+    FilterScanner scanner = new FilterScanner();
+    scanner.setIncludes(includes);
+    scanner.setExcludes(excludes);
+    scanner.addDefaultExcludes();
+    return scanner.matches(relativePath);
+  }
+
+  private static class FilterScanner extends DirectoryScanner {
+    boolean matches(String relativePath) {
+      setupDefaultFilters();
+      setupMatchPatterns();
+      return isIncluded(relativePath) && !isExcluded(relativePath);
+    }
+  }
+
   public static String toClasspathString(ClassLoader cl) {
     StringBuilder back = new StringBuilder();
     List<String> cps = new ArrayList<>();
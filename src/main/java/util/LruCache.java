@@ -0,0 +1,176 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Thread-safe map evicting its least recently used entries beyond a maximum weight, counting hits
+ * and misses. By default each entry weighs 1, so the maximum weight is the maximum size.
+ *
+ * <p>A value is computed outside of the lock, so the values of different keys are computed
+ * concurrently, while the threads getting a key being computed wait for it. The evicted values are
+ * passed to a listener, eg to close them.
+ */
+public final class LruCache<K, V> {
+
+  private final LinkedHashMap<K, CompletableFuture<V>> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private final ToLongBiFunction<? super K, ? super V> weigher;
+  private final Consumer<? super V> onEviction;
+  private long maxWeight;
+  private long weight;
+  private long hits;
+  private long misses;
+
+  public LruCache(long maxSize) {
+    this(maxSize, (k, v) -> 1);
+  }
+
+  public LruCache(long maxWeight, ToLongBiFunction<? super K, ? super V> weigher) {
+    this(maxWeight, weigher, v -> {});
+  }
+
+  public LruCache(
+      long maxWeight,
+      ToLongBiFunction<? super K, ? super V> weigher,
+      Consumer<? super V> onEviction) {
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.onEviction = onEviction;
+  }
+
+  /**
+   * Returns the value of the key, computing and caching it if absent. A null computed value is
+   * returned but not cached. If the computation of another thread fails, the key is computed again.
+   */
+  public V get(K key, Function<? super K, ? extends V> compute) {
+    CompletableFuture<V> future;
+    boolean computing = false;
+    synchronized (this) {
+      future = entries.get(key);
+      if (future != null) {
+        hits++;
+      } else {
+        misses++;
+        future = new CompletableFuture<>();
+        entries.put(key, future);
+        computing = true;
+      }
+    }
+    if (!computing) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        return get(key, compute);
+      }
+    }
+
+    V value;
+    try {
+      value = compute.apply(key);
+    } catch (RuntimeException | Error e) {
+      synchronized (this) {
+        entries.remove(key, future);
+      }
+      future.completeExceptionally(e);
+      throw e;
+    }
+    List<V> evicted;
+    synchronized (this) {
+      if (value == null) {
+        entries.remove(key, future);
+      } else {
+        weight += weigher.applyAsLong(key, value);
+      }
+      future.complete(value);
+      evicted = evict();
+    }
+    evicted.forEach(onEviction);
+    return value;
+  }
+
+  public void setMaxWeight(long maxWeight) {
+    List<V> evicted;
+    synchronized (this) {
+      this.maxWeight = maxWeight;
+      evicted = evict();
+    }
+    evicted.forEach(onEviction);
+  }
+
+  /** Removes the computed value of the key, without passing it to the eviction listener. */
+  public synchronized void remove(K key) {
+    CompletableFuture<V> future = entries.get(key);
+    if (future != null && future.isDone()) {
+      entries.remove(key);
+      weight -= weigher.applyAsLong(key, future.join());
+    }
+  }
+
+  /** Evicts all the computed values. */
+  public void clear() {
+    List<V> evicted;
+    synchronized (this) {
+      long maxWeight = this.maxWeight;
+      this.maxWeight = 0;
+      evicted = evict();
+      this.maxWeight = maxWeight;
+    }
+    evicted.forEach(onEviction);
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long hits() {
+    return hits;
+  }
+
+  public synchronized long misses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "size="
+        + entries.size()
+        + ", weight="
+        + weight
+        + "/"
+        + maxWeight
+        + ", hits="
+        + hits
+        + ", misses="
+        + misses;
+  }
+
+  // removes the least recently used computed values beyond the max weight, the ones being
+  // computed are kept
+  private List<V> evict() {
+    List<V> evicted = new ArrayList<>();
+    Iterator<Map.Entry<K, CompletableFuture<V>>> iterator = entries.entrySet().iterator();
+    while (weight > maxWeight && iterator.hasNext()) {
+      Map.Entry<K, CompletableFuture<V>> eldest = iterator.next();
+      if (eldest.getValue().isDone()) {
+        V value = eldest.getValue().join();
+        iterator.remove();
+        weight -= weigher.applyAsLong(eldest.getKey(), value);
+        evicted.add(value);
+      }
+    }
+    return evicted;
+  }
+}
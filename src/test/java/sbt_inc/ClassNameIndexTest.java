@@ -0,0 +1,54 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassNameIndexTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void lookUpClassesOfJar() throws Exception {
+    File jar = tmp.newFile("a.jar");
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar))) {
+      for (String name : new String[] {"a/", "a/A.class", "a/A$B.class", "a/readme.txt"}) {
+        zos.putNextEntry(new ZipEntry(name));
+        zos.closeEntry();
+      }
+    }
+    File indexDir = tmp.newFolder("class-names");
+    JarFingerprints fingerprints = JarFingerprints.of(new File(indexDir, "jar-fingerprints"));
+    ClassNameIndex index = ClassNameIndex.forJar(indexDir, fingerprints, jar.toPath());
+
+    assertTrue(index.apply("a.A"));
+    assertTrue(index.apply("a.A$B"));
+    assertFalse(index.apply("a.B"));
+    assertFalse(index.apply("a.readme"));
+  }
+
+  @Test
+  public void lookUpClassesOfRunningJdk() throws Exception {
+    Optional<ClassNameIndex> index =
+        ClassNameIndex.forJdkModules(tmp.newFolder("class-names"), null);
+    // no modules before Java 9
+    assertEquals(!System.getProperty("java.version").startsWith("1."), index.isPresent());
+    if (index.isPresent()) {
+      assertTrue(index.get().apply("java.lang.Object"));
+      assertFalse(index.get().apply("java.lang.NoSuchClass"));
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import org.junit.Test;
+import sbt.internal.inc.APIs;
+import sbt.internal.inc.Analysis;
+import sbt.internal.inc.EmptyStamp$;
+import sbt.internal.inc.Relations;
+import sbt.internal.inc.UsedName;
+import sbt.internal.inc.UsedNames$;
+import scala.Tuple2;
+import scala.Tuple3;
+import scala.jdk.javaapi.CollectionConverters;
+import xsbti.UseScope;
+import xsbti.VirtualFileRef;
+import xsbti.api.DependencyContext;
+import xsbti.api.ExternalDependency;
+import xsbti.api.InternalDependency;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.analysis.Stamp;
+
+public class CompactAnalysesTest {
+
+  private static Analysis analysis() {
+    VirtualFileRef a = VirtualFileRef.of("${BASE}/src/main/scala/p/A.scala");
+    VirtualFileRef b = VirtualFileRef.of("${BASE}/src/main/scala/p/B.scala");
+    Relations relations =
+        Relations.empty()
+            .addProducts(
+                a,
+                CollectionConverters.asScala(
+                    Arrays.asList(
+                        VirtualFileRef.of("${BASE}/target/classes/p/A.class"),
+                        VirtualFileRef.of("${BASE}/target/classes/p/A$.class"))))
+            .addProducts(
+                b,
+                CollectionConverters.asScala(
+                    Arrays.asList(VirtualFileRef.of("${BASE}/target/classes/p/B.class"))))
+            .addClasses(
+                a,
+                CollectionConverters.asScala(
+                    Arrays.asList(new Tuple2<>("p.A", "p.A"), new Tuple2<>("p.A", "p.A$"))))
+            .addClasses(b, CollectionConverters.asScala(Arrays.asList(new Tuple2<>("p.B", "p.B"))))
+            .addInternalSrcDeps(
+                b,
+                CollectionConverters.asScala(
+                    Arrays.asList(
+                        InternalDependency.of(
+                            "p.B", "p.A", DependencyContext.DependencyByMemberRef),
+                        InternalDependency.of(
+                            "p.B", "p.A", DependencyContext.DependencyByInheritance))))
+            .addExternalDeps(
+                a,
+                CollectionConverters.asScala(
+                    Arrays.asList(
+                        ExternalDependency.of(
+                            "p.A",
+                            "q.Q",
+                            APIs.emptyAnalyzedClass().withName("q.Q"),
+                            DependencyContext.DependencyByMemberRef))))
+            .addLibraryDeps(
+                a,
+                CollectionConverters.asScala(
+                    Arrays.asList(
+                        new Tuple3<VirtualFileRef, String, Stamp>(
+                            VirtualFileRef.of("${M2}/scala-library.jar"),
+                            "scala.Predef",
+                            EmptyStamp$.MODULE$))))
+            .addUsedNames(
+                UsedNames$.MODULE$.fromMultiMap(CollectionConverters.asScala(usedNames())));
+    return Analysis.empty()
+        .copy(
+            Analysis.empty().stamps(),
+            Analysis.empty().apis(),
+            relations,
+            Analysis.empty().infos(),
+            Analysis.empty().compilations());
+  }
+
+  private static Map<String, scala.collection.Set<UsedName>> usedNames() {
+    Map<String, scala.collection.Set<UsedName>> names = new HashMap<>();
+    names.put(
+        "p.A",
+        CollectionConverters.asScala(
+            new HashSet<>(
+                Arrays.asList(
+                    UsedName.make("q", EnumSet.of(UseScope.Default)),
+                    UsedName.make("Q", EnumSet.of(UseScope.Default, UseScope.Implicit))))));
+    names.put(
+        "p.B",
+        CollectionConverters.asScala(
+            new HashSet<>(Arrays.asList(UsedName.make("A", EnumSet.of(UseScope.Default))))));
+    return names;
+  }
+
+  @Test
+  public void keepTheRelations() {
+    Analysis analysis = analysis();
+    Relations relations = analysis.relations();
+    Relations compacted =
+        ((Analysis) CompactAnalyses.compact(AnalysisContents.create(analysis, null)).getAnalysis())
+            .relations();
+
+    assertEquals(relations.srcProd(), compacted.srcProd());
+    assertEquals(relations.libraryDep(), compacted.libraryDep());
+    assertEquals(relations.libraryClassName(), compacted.libraryClassName());
+    assertEquals(relations.internalDependencies(), compacted.internalDependencies());
+    assertEquals(relations.externalDependencies(), compacted.externalDependencies());
+    assertEquals(relations.classes(), compacted.classes());
+    assertEquals(relations.names().toMultiMap(), compacted.names().toMultiMap());
+    assertEquals(relations.productClassName(), compacted.productClassName());
+  }
+
+  @Test
+  public void shareThePaths() {
+    Relations first =
+        ((Analysis)
+                CompactAnalyses.compact(AnalysisContents.create(analysis(), null)).getAnalysis())
+            .relations();
+    Relations second =
+        ((Analysis)
+                CompactAnalyses.compact(AnalysisContents.create(analysis(), null)).getAnalysis())
+            .relations();
+
+    assertSame(first.srcProd()._1s().head(), second.srcProd()._1s().head());
+  }
+}
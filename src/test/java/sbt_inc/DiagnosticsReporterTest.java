@@ -0,0 +1,119 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.util.InterfaceUtil;
+import scala.Option;
+import xsbti.Logger;
+import xsbti.Problem;
+import xsbti.Severity;
+
+public class DiagnosticsReporterTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final List<String> logged = new ArrayList<>();
+
+  private final Logger logger =
+      new Logger() {
+        @Override
+        public void error(Supplier<String> msg) {
+          logged.add("error " + msg.get());
+        }
+
+        @Override
+        public void warn(Supplier<String> msg) {
+          logged.add("warn " + msg.get());
+        }
+
+        @Override
+        public void info(Supplier<String> msg) {
+          logged.add("info " + msg.get());
+        }
+
+        @Override
+        public void debug(Supplier<String> msg) {}
+
+        @Override
+        public void trace(Supplier<Throwable> exception) {}
+      };
+
+  private static Problem problem(int line, Severity severity, String message) {
+    return InterfaceUtil.problem(
+        "",
+        InterfaceUtil.position(
+            Option.apply(line),
+            "",
+            Option.apply(line * 10),
+            Option.apply(0),
+            Option.apply(""),
+            Option.apply("A.scala"),
+            Option.empty()),
+        message,
+        severity);
+  }
+
+  @Test
+  public void writeAllDiagnosticsAndLogSome() throws Exception {
+    File file = new File(tmp.getRoot(), "compile-diagnostics.jsonl");
+    DiagnosticsReporter reporter = new DiagnosticsReporter(file, 100, 1, logger);
+    reporter.log(problem(1, Severity.Warn, "deprecated"));
+    reporter.log(problem(2, Severity.Warn, "deprecated \"too\""));
+    reporter.log(problem(2, Severity.Warn, "deprecated \"too\""));
+    reporter.log(problem(3, Severity.Error, "not found"));
+    assertTrue(reporter.hasErrors());
+    reporter.close();
+
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(3, lines.size());
+    assertEquals(
+        "{\"severity\":\"Warn\",\"path\":\"A.scala\",\"line\":2,\"column\":1,\"offset\":20,"
+            + "\"message\":\"deprecated \\\"too\\\"\"}",
+        lines.get(1));
+    assertEquals(
+        "[warn A.scala:1: deprecated, error A.scala:3: not found,"
+            + " error 2 warnings, 1 error (1 not logged), see "
+            + file
+            + "]",
+        logged.toString());
+  }
+
+  @Test
+  public void keepTheProblemsOfEachRun() throws Exception {
+    File file = new File(tmp.getRoot(), "compile-diagnostics.jsonl");
+    DiagnosticsReporter reporter = new DiagnosticsReporter(file, 100, 100, logger);
+    reporter.log(problem(1, Severity.Error, "not found"));
+    reporter.reset();
+    assertFalse(reporter.hasErrors());
+    // the next run recompiles the source and reports the same problem
+    reporter.log(problem(1, Severity.Error, "not found"));
+    assertTrue(reporter.hasErrors());
+    assertEquals(1, reporter.problems().length);
+    reporter.close();
+
+    assertEquals(1, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+  }
+
+  @Test
+  public void deleteDiagnosticsOfPreviousCompilation() throws Exception {
+    File file = tmp.newFile("compile-diagnostics.jsonl");
+    DiagnosticsReporter reporter = new DiagnosticsReporter(file, 100, 100, logger);
+    reporter.close();
+    assertFalse(file.exists());
+  }
+}
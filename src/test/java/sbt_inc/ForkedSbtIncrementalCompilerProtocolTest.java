@@ -0,0 +1,98 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import scala_maven_executions.ForkLogLevel;
+import xsbti.compile.CompileOrder;
+
+public class ForkedSbtIncrementalCompilerProtocolTest {
+
+  private static ForkedSbtIncrementalCompilerMain.Args args(List<File> sources) {
+    SbtIncrementalCompilerSettings settings = new SbtIncrementalCompilerSettings();
+    settings.compileOrder = CompileOrder.JavaThenScala;
+    settings.pipelining = true;
+    settings.maxErrors = 10;
+    settings.maxLoggedWarnings = 20;
+    return new ForkedSbtIncrementalCompilerMain.Args(
+        new File("/jdk"),
+        new File("/target/analysis/compile"),
+        new File("/bridge.jar"),
+        new File("/target/analysis/compile-jars"),
+        "2.13.12",
+        Collections.singletonList(new File("/scala-compiler.jar")),
+        Collections.singletonList(new File("/scala-library.jar")),
+        settings,
+        Collections.emptyList(),
+        sources,
+        new File("/target/classes"),
+        Arrays.asList("-deprecation", "-Xplugin:/é.jar"),
+        Collections.emptyList(),
+        true);
+  }
+
+  @Test
+  public void streamRequestsLargerThanAChunk() throws Exception {
+    List<File> sources = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      sources.add(new File("/src/main/scala/pkg" + i + "/Source" + i + ".scala"));
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ForkedSbtIncrementalCompilerProtocol.FrameWriter writer =
+        new ForkedSbtIncrementalCompilerProtocol.FrameWriter(bytes);
+    ForkedSbtIncrementalCompilerProtocol.writeRequest(writer, args(sources));
+    ForkedSbtIncrementalCompilerProtocol.writeRequest(
+        writer, args(Collections.singletonList(new File("/A.scala"))));
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    ForkedSbtIncrementalCompilerMain.Args request =
+        ForkedSbtIncrementalCompilerProtocol.readRequest(in);
+    assertEquals(sources, request.sources);
+    assertEquals(Arrays.asList("-deprecation", "-Xplugin:/é.jar"), request.scalacOptions);
+    assertEquals(CompileOrder.JavaThenScala, request.settings.compileOrder);
+    assertEquals(AnalysisStoreFormat.binary, request.settings.analysisStoreFormat);
+    assertTrue(request.settings.pipelining);
+    assertEquals(20, request.settings.maxLoggedWarnings);
+    request = ForkedSbtIncrementalCompilerProtocol.readRequest(in);
+    assertEquals(Collections.singletonList(new File("/A.scala")), request.sources);
+    assertNull(ForkedSbtIncrementalCompilerProtocol.readRequest(in));
+  }
+
+  @Test
+  public void forwardMessagesUntilTheResult() throws Exception {
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    response.write("Picked up JAVA_TOOL_OPTIONS: -Xss4m\n".getBytes("UTF-8"));
+    ForkedSbtIncrementalCompilerProtocol.FrameWriter writer =
+        new ForkedSbtIncrementalCompilerProtocol.FrameWriter(response);
+    writer.writeMagic();
+    writer.log(ForkLogLevel.ERROR, "A.scala:1: not found\nobject A extends B\n^");
+    writer.result(false);
+
+    List<String> logged = new ArrayList<>();
+    boolean success =
+        ForkedSbtIncrementalCompilerProtocol.sendRequest(
+            new ForkedSbtIncrementalCompilerProtocol.FrameWriter(new ByteArrayOutputStream()),
+            new DataInputStream(new ByteArrayInputStream(response.toByteArray())),
+            true,
+            args(Collections.emptyList()),
+            (level, message) -> logged.add(level + " " + message));
+    assertFalse(success);
+    assertEquals(
+        Arrays.asList(
+            "WARN Picked up JAVA_TOOL_OPTIONS: -Xss4m",
+            "ERROR A.scala:1: not found\nobject A extends B\n^"),
+        logged);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import javax.tools.Diagnostic;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InProcessJavacTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private static File write(File dir, String name, String content) throws Exception {
+    File file = new File(dir, name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  // the way zinc's LocalJavaCompiler uses the compiler, with file objects of its own
+  private static boolean compile(
+      JavaCompiler javac, File source, File jar, File out, List<String> errors) throws Exception {
+    Iterable<? extends JavaFileObject> units =
+        ToolProvider.getSystemJavaCompiler()
+            .getStandardFileManager(null, null, null)
+            .getJavaFileObjectsFromFiles(Arrays.asList(source));
+    StandardJavaFileManager fileManager = javac.getStandardFileManager(null, null, null);
+    try {
+      return javac
+          .getTask(
+              null,
+              fileManager,
+              diagnostic -> {
+                if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                  errors.add(diagnostic.getMessage(null));
+                }
+              },
+              Arrays.asList("-classpath", jar.getPath(), "-d", out.getPath()),
+              null,
+              units)
+          .call();
+    } finally {
+      fileManager.close();
+    }
+  }
+
+  private void jar(File jar, File src, String content) throws Exception {
+    File classes = temp.newFolder();
+    JavaCompiler javac = InProcessJavac.forJavaHome(javaHome()).get();
+    assertTrue(
+        compile(javac, write(src, "lib/Lib.java", content), jar, classes, new ArrayList<>()));
+    Path tmp = Files.createTempFile(temp.getRoot().toPath(), "lib", ".jar");
+    try (OutputStream file = Files.newOutputStream(tmp);
+        JarOutputStream out = new JarOutputStream(file)) {
+      out.putNextEntry(new JarEntry("lib/Lib.class"));
+      out.write(Files.readAllBytes(new File(classes, "lib/Lib.class").toPath()));
+    }
+    // a different size, so the change is seen even within the resolution of last modified
+    Files.move(tmp, jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static File javaHome() {
+    return new File(System.getProperty("java.home"));
+  }
+
+  @Test
+  public void reuseFileManagersUntilAJarChanges() throws Exception {
+    JavaCompiler javac = InProcessJavac.forJavaHome(javaHome()).get();
+    File src = temp.newFolder("src");
+    File out = temp.newFolder("out");
+    File jar = new File(temp.getRoot(), "lib.jar");
+    jar(
+        jar,
+        temp.newFolder(),
+        "package lib; public class Lib { public static int a() { return 1; } }");
+
+    List<String> errors = new ArrayList<>();
+    File a = write(src, "A.java", "class A { int a = lib.Lib.a(); }");
+    assertTrue(compile(javac, a, jar, out, errors));
+    assertTrue(compile(javac, a, jar, out, errors));
+
+    File b = write(src, "B.java", "class B { int b = lib.Lib.b(); }");
+    assertFalse(compile(javac, b, jar, out, errors));
+    assertEquals(1, errors.size());
+
+    jar(
+        jar,
+        temp.newFolder(),
+        "package lib; public class Lib {"
+            + " public static int a() { return 1; } public static int b() { return 2; } }");
+    errors.clear();
+    assertTrue(errors.toString(), compile(javac, b, jar, out, errors));
+  }
+
+  @Test
+  public void forkTheJavacOfAnotherJdk() throws Exception {
+    assertFalse(InProcessJavac.forJavaHome(temp.newFolder("jdk")).isPresent());
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xsbti.compile.IncOptions;
+
+public class IncrementalHistoryTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void keepOptionsOfCheapCompilations() throws Exception {
+    File file = new File(tmp.getRoot(), "compile-cycles");
+    IncrementalHistory history = IncrementalHistory.load(file);
+    history.add(100, new int[] {100}, new long[] {1000});
+    history.add(100, new int[] {1, 3}, new long[] {20, 50});
+    history.save();
+
+    IncOptions options = IncOptions.of();
+    assertSame(options, IncrementalHistory.load(file).tune(options));
+  }
+
+  @Test
+  public void recompileAllSoonerAfterCascades() throws Exception {
+    File file = new File(tmp.getRoot(), "compile-cycles");
+    IncrementalHistory history = IncrementalHistory.load(file);
+    history.add(100, new int[] {100}, new long[] {1000});
+    // the second cycle invalidated 40% of the sources and then cost more than a clean compilation
+    history.add(100, new int[] {1, 40, 70}, new long[] {20, 600, 900});
+    history.save();
+
+    IncOptions tuned = IncrementalHistory.load(file).tune(IncOptions.of());
+    assertEquals(0.36, tuned.recompileAllFraction(), 0.001);
+    assertEquals(1, tuned.transitiveStep());
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xsbti.VirtualFileRef;
+import xsbti.compile.APIChange;
+import xsbti.compile.Changes;
+import xsbti.compile.InitialChanges;
+import xsbti.compile.UsedName;
+
+public class InvalidationReportTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static Set<VirtualFileRef> refs(String... ids) {
+    Set<VirtualFileRef> refs = new HashSet<>();
+    for (String id : ids) {
+      refs.add(VirtualFileRef.of(id));
+    }
+    return refs;
+  }
+
+  // /src/B.scala and the upstream class q.Q changed
+  private static final InitialChanges changes =
+      new InitialChanges() {
+        @Override
+        public Changes<VirtualFileRef> getInternalSrc() {
+          return new Changes<VirtualFileRef>() {
+            @Override
+            public Set<VirtualFileRef> getAdded() {
+              return refs();
+            }
+
+            @Override
+            public Set<VirtualFileRef> getRemoved() {
+              return refs();
+            }
+
+            @Override
+            public Set<VirtualFileRef> getChanged() {
+              return refs("/src/B.scala");
+            }
+
+            @Override
+            public Set<VirtualFileRef> getUnmodified() {
+              return refs("/src/A.scala", "/src/C.scala");
+            }
+
+            @Override
+            public Boolean isEmpty() {
+              return false;
+            }
+          };
+        }
+
+        @Override
+        public Set<VirtualFileRef> getRemovedProducts() {
+          return refs();
+        }
+
+        @Override
+        public Set<VirtualFileRef> getLibraryDeps() {
+          return refs();
+        }
+
+        @Override
+        public APIChange[] getExternal() {
+          return new APIChange[] {
+            new APIChange() {
+              @Override
+              public String getModifiedClass() {
+                return "q.Q";
+              }
+
+              @Override
+              public Set<UsedName> getModifiedNames() {
+                return Collections.emptySet();
+              }
+            }
+          };
+        }
+      };
+
+  private static long millis(String json, String field, int index) {
+    String[] parts = json.split("\"" + field + "\": ");
+    return Long.parseLong(parts[index + 1].substring(0, parts[index + 1].indexOf(',')));
+  }
+
+  @Test
+  public void recordTheCyclesAndWriteThem() throws Exception {
+    File file = InvalidationReport.reportFile(new File(tmp.getRoot(), "compile"));
+    InvalidationReport report = new InvalidationReport(file, 3);
+    long beforeCycles = System.nanoTime();
+    report.registerInitial(changes);
+    long beforeFirstCycle = System.nanoTime();
+    report.registerCycle(
+        new String[] {"p.B"},
+        new String[0],
+        new VirtualFileRef[] {VirtualFileRef.of("/src/B.scala")},
+        new VirtualFileRef[] {VirtualFileRef.of("/src/B.scala")},
+        new String[] {"p.B", "p.B$"},
+        null,
+        new String[] {"p.A"},
+        true);
+    // javac is timed after the cycle was registered, which extends it
+    long javacEnd = System.nanoTime();
+    report.timeCompilation(javacEnd - TimeUnit.MILLISECONDS.toNanos(2), 0);
+    report.timeCompilation(javacEnd - TimeUnit.MILLISECONDS.toNanos(3), 3_000_000);
+    report.registerCycle(
+        new String[] {"p.A"},
+        new String[0],
+        new VirtualFileRef[0],
+        new VirtualFileRef[] {VirtualFileRef.of("/src/\"A\".scala")},
+        new String[] {"p.A"},
+        null,
+        new String[0],
+        true);
+    long afterCycles = System.nanoTime();
+    report.write();
+
+    assertEquals(2, report.cycles());
+    assertEquals(2, report.recompiledSources());
+    IncrementalHistory history = IncrementalHistory.load(new File(tmp.getRoot(), "compile-cycles"));
+    report.addTo(history);
+    IncrementalHistory.Run run = history.runs().get(0);
+    assertEquals(3, run.totalSources);
+    assertArrayEquals(new int[] {1, 1}, run.sources);
+    // the first cycle ends with javac, the second one starts there
+    assertTrue(run.nanos[0] >= javacEnd - beforeFirstCycle);
+    assertTrue(run.nanos[0] <= javacEnd - beforeCycles);
+    assertTrue(run.nanos[0] + run.nanos[1] <= afterCycles - beforeCycles);
+
+    String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"totalSources\": 3,"));
+    assertTrue(json.contains("\"changedSources\": [\"/src/B.scala\"],"));
+    assertTrue(json.contains("\"changedUpstreamClasses\": [\"q.Q\"]"));
+    assertTrue(json.contains("\"recompiledClasses\": 2,"));
+    assertTrue(json.contains("\"nextInvalidations\": [\"p.A\"]"));
+    assertTrue(json.contains("\"invalidatedSources\": [\"/src/\\\"A\\\".scala\"],"));
+    assertEquals(3, millis(json, "compileMs", 0));
+    assertEquals(0, millis(json, "compileMs", 1));
+    assertEquals(TimeUnit.NANOSECONDS.toMillis(run.nanos[0]), millis(json, "ms", 0));
+  }
+
+  @Test
+  public void writeAnEmptyReportIfNothingWasCompiled() throws Exception {
+    File file = InvalidationReport.reportFile(new File(tmp.getRoot(), "compile"));
+    InvalidationReport report = new InvalidationReport(file, 3);
+    report.timeCompilation(System.nanoTime(), 1_000_000);
+    report.write();
+
+    assertTrue(report.isEmpty());
+    String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"initialChanges\": {},"));
+    assertTrue(json.contains("\"cycles\": []"));
+  }
+}
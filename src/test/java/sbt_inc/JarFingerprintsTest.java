@@ -0,0 +1,65 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarFingerprintsTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File jar(String name, int level, String content) throws Exception {
+    File file = new File(tmp.getRoot(), name);
+    try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+      zos.setLevel(level);
+      zos.putNextEntry(new ZipEntry("a/A.class"));
+      zos.write(content.getBytes(StandardCharsets.UTF_8));
+      zos.closeEntry();
+    }
+    return file;
+  }
+
+  @Test
+  public void ignoreLayoutOfRebuiltJars() throws Exception {
+    File cacheFile = new File(tmp.getRoot(), "jar-fingerprints");
+    JarFingerprints fingerprints = JarFingerprints.of(cacheFile);
+    String first = fingerprints.fingerprint(jar("a.jar", 0, "A").toPath());
+    String rebuilt = fingerprints.fingerprint(jar("b.jar", 9, "A").toPath());
+    String changed = fingerprints.fingerprint(jar("c.jar", 0, "B").toPath());
+    assertEquals(first, rebuilt);
+    assertNotEquals(first, changed);
+
+    fingerprints.save();
+    assertEquals(true, cacheFile.isFile());
+  }
+
+  @Test
+  public void hashClassFilesOnlyIfChanged() throws Exception {
+    JarFingerprints fingerprints = JarFingerprints.of(new File(tmp.getRoot(), "jar-fingerprints"));
+    File classFile = new File(tmp.getRoot(), "A.class");
+    Files.write(classFile.toPath(), "A".getBytes(StandardCharsets.UTF_8));
+    classFile.setLastModified(1000000);
+    String first = fingerprints.classFileStamp(classFile.toPath());
+
+    // same size and last modification time: the cached hash is reused
+    Files.write(classFile.toPath(), "B".getBytes(StandardCharsets.UTF_8));
+    classFile.setLastModified(1000000);
+    assertEquals(first, fingerprints.classFileStamp(classFile.toPath()));
+
+    classFile.setLastModified(2000000);
+    assertNotEquals(first, fingerprints.classFileStamp(classFile.toPath()));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xsbti.Logger;
+import xsbti.compile.JavaCompiler;
+
+public class PhaseTimingsTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final Logger logger =
+      new Logger() {
+        @Override
+        public void error(Supplier<String> msg) {}
+
+        @Override
+        public void warn(Supplier<String> msg) {}
+
+        @Override
+        public void info(Supplier<String> msg) {}
+
+        @Override
+        public void debug(Supplier<String> msg) {}
+
+        @Override
+        public void trace(Supplier<Throwable> exception) {}
+      };
+
+  private static List<String> matches(String json, String regex) {
+    List<String> matches = new ArrayList<>();
+    Matcher matcher = Pattern.compile(regex).matcher(json);
+    while (matcher.find()) {
+      matches.add(matcher.group(1));
+    }
+    return matches;
+  }
+
+  @Test
+  public void writeThePhasesInTheirOrderAndTheUnits() throws Exception {
+    File file = PhaseTimings.reportFile(new File(tmp.getRoot(), "compile"));
+    PhaseTimings timings = new PhaseTimings(file, logger);
+    timings.startUnit("typer", "/src/A.scala");
+    timings.startUnit("typer", "/src/\"B\".scala");
+    timings.advance(1, 4, "typer", "pickler");
+    // the backend doesn't report its units
+    timings.advance(2, 4, "jvm", "terminal");
+    JavaCompiler javac = (sources, options, output, incToolOptions, reporter, log) -> true;
+    assertTrue(timings.timed(javac).run(null, null, null, null, null, logger));
+    timings.startUnit("typer", "/src/A.scala");
+    timings.finish();
+
+    String json = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    assertEquals(
+        Arrays.asList("typer", "jvm", PhaseTimings.JAVAC),
+        matches(json, "\\{\"phase\": \"([^\"]*)\""));
+    List<String> units = matches(json, "\\{\"unit\": \"((?:[^\"\\\\]|\\\\.)*)\"");
+    assertEquals(2, units.size());
+    assertTrue(units.contains("/src/A.scala"));
+    assertTrue(units.contains("/src/\\\"B\\\".scala"));
+  }
+
+  @Test
+  public void writeNoReportIfNothingWasCompiled() throws Exception {
+    File file = PhaseTimings.reportFile(new File(tmp.getRoot(), "compile"));
+    new PhaseTimings(file, logger).finish();
+    assertFalse(file.exists());
+  }
+}
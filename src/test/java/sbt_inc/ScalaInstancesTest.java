@@ -0,0 +1,34 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import sbt.internal.inc.ScalaInstance;
+
+public class ScalaInstancesTest {
+
+  private static final List<File> LIBRARY =
+      Collections.singletonList(
+          new File(
+              scala.Option.class.getProtectionDomain().getCodeSource().getLocation().getPath()));
+
+  @Test
+  public void keepUsingAnEvictedInstance() throws Exception {
+    ScalaInstance first = ScalaInstances.getScalaInstance("2.13.0", LIBRARY, LIBRARY, 1);
+    ScalaInstance second = ScalaInstances.getScalaInstance("2.13.1", LIBRARY, LIBRARY, 1);
+    assertNotSame(first, second);
+    // evicted by the second one, but still used by the compilers made from it
+    assertNotSame(first, ScalaInstances.getScalaInstance("2.13.0", LIBRARY, LIBRARY, 1));
+
+    Class<?> loaded = first.loaderLibraryOnly().loadClass("scala.collection.immutable.TreeSeqMap");
+    assertEquals(first.loaderLibraryOnly(), loaded.getClassLoader());
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.internal.inc.PlainVirtualFile;
+import sbt.internal.inc.Stamper;
+import xsbti.VirtualFile;
+
+public class SourceStampsTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private VirtualFile source(String name, String content, long lastModified) throws Exception {
+    File file = new File(tmp.getRoot(), name);
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    file.setLastModified(lastModified);
+    return new PlainVirtualFile(file.toPath());
+  }
+
+  @Test
+  public void rehashOnlyModifiedSources() throws Exception {
+    File stampsFile = new File(tmp.getRoot(), "compile-stamps");
+    JarFingerprints jarFingerprints = JarFingerprints.of(new File(tmp.getRoot(), "fingerprints"));
+    long lastModified = System.currentTimeMillis() - 60_000;
+    VirtualFile a = source("A.scala", "class A", lastModified);
+    VirtualFile b = source("B.scala", "class B", lastModified);
+
+    SourceStamps first =
+        SourceStamps.compute(stampsFile, new VirtualFile[] {a, b}, jarFingerprints);
+    assertEquals(2, first.hashed());
+    assertEquals(Stamper.forContentHash().apply(a).writeStamp(), first.source(a).writeStamp());
+
+    SourceStamps second =
+        SourceStamps.compute(stampsFile, new VirtualFile[] {a, b}, jarFingerprints);
+    assertEquals(0, second.hashed());
+    assertEquals(first.source(a).writeStamp(), second.source(a).writeStamp());
+
+    b = source("B.scala", "class C", lastModified + 1000);
+    SourceStamps third =
+        SourceStamps.compute(stampsFile, new VirtualFile[] {a, b}, jarFingerprints);
+    assertEquals(1, third.hashed());
+    assertNotEquals(first.source(b).writeStamp(), third.source(b).writeStamp());
+  }
+
+  @Test
+  public void stampOnlyChangedPaths() throws Exception {
+    File stampsFile = new File(tmp.getRoot(), "compile-stamps");
+    JarFingerprints jarFingerprints = JarFingerprints.of(new File(tmp.getRoot(), "fingerprints"));
+    long lastModified = System.currentTimeMillis() - 60_000;
+    VirtualFile a = source("A.scala", "class A", lastModified);
+    VirtualFile b = source("B.scala", "class B", lastModified);
+    SourceStamps first =
+        SourceStamps.compute(stampsFile, new VirtualFile[] {a, b}, jarFingerprints);
+
+    a = source("A.scala", "class C", lastModified + 1000);
+    b = source("B.scala", "class D", lastModified + 1000);
+    Set<Path> changedPaths = Collections.singleton(new File(tmp.getRoot(), "B.scala").toPath());
+    SourceStamps second =
+        SourceStamps.compute(stampsFile, new VirtualFile[] {a, b}, changedPaths, jarFingerprints);
+    assertEquals(1, second.hashed());
+    assertEquals(first.source(a).writeStamp(), second.source(a).writeStamp());
+    assertNotEquals(first.source(b).writeStamp(), second.source(b).writeStamp());
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.util.*;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import sbt.internal.inc.APIs;
+import sbt.internal.inc.Analysis;
+import scala.Tuple2;
+import scala.jdk.javaapi.CollectionConverters;
+import xsbti.VirtualFileRef;
+import xsbti.api.DependencyContext;
+import xsbti.api.ExternalDependency;
+import xsbti.api.InternalDependency;
+
+public class TestImpactTest {
+
+  private static final long LAST_BUILD = 1000;
+  private static final long BUILD = 2000;
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  // main: B depends on A, C is independent; test: each test class depends on its main class
+  private Analysis main;
+  private Analysis test;
+
+  @Before
+  public void setUp() {
+    main = Analysis.empty();
+    main = addClass(main, "p.A", LAST_BUILD, Collections.emptyList(), Collections.emptyList());
+    main = addClass(main, "p.B", LAST_BUILD, Arrays.asList("p.A"), Collections.emptyList());
+    main = addClass(main, "p.C", LAST_BUILD, Collections.emptyList(), Collections.emptyList());
+    test = Analysis.empty();
+    test = addClass(test, "p.ATest", LAST_BUILD, Collections.emptyList(), Arrays.asList("p.A"));
+    test = addClass(test, "p.BTest", LAST_BUILD, Collections.emptyList(), Arrays.asList("p.B"));
+    test = addClass(test, "p.CTest", LAST_BUILD, Collections.emptyList(), Arrays.asList("p.C"));
+  }
+
+  // adds the class, defined in its own source, depending on the classes of the same analysis and
+  // on the ones of the analysis upstream
+  private Analysis addClass(
+      Analysis analysis,
+      String name,
+      long compiled,
+      List<String> internalDependencies,
+      List<String> externalDependencies) {
+    VirtualFileRef source = VirtualFileRef.of(source(name).getAbsolutePath());
+    List<InternalDependency> internal = new ArrayList<>();
+    for (String dependency : internalDependencies) {
+      internal.add(
+          InternalDependency.of(name, dependency, DependencyContext.DependencyByMemberRef));
+    }
+    List<ExternalDependency> external = new ArrayList<>();
+    for (String dependency : externalDependencies) {
+      external.add(
+          ExternalDependency.of(
+              name,
+              dependency,
+              APIs.emptyAnalyzedClass().withName(dependency),
+              DependencyContext.DependencyByMemberRef));
+    }
+    return analysis.copy(
+        analysis.stamps(),
+        analysis
+            .apis()
+            .markInternalAPI(
+                name, APIs.emptyAnalyzedClass().withName(name).withCompilationTimestamp(compiled)),
+        analysis
+            .relations()
+            .addProducts(
+                source,
+                CollectionConverters.asScala(
+                    Arrays.asList(VirtualFileRef.of(name.replace('.', '/') + ".class"))))
+            .addClasses(
+                source, CollectionConverters.asScala(Arrays.asList(new Tuple2<>(name, name))))
+            .addInternalSrcDeps(source, CollectionConverters.asScala(internal))
+            .addExternalDeps(source, CollectionConverters.asScala(external)),
+        analysis.infos(),
+        analysis.compilations());
+  }
+
+  private File source(String name) {
+    return new File(temp.getRoot(), name.replace('.', '/') + ".scala");
+  }
+
+  private Optional<Set<String>> affectedTests(Collection<File> changedSources) {
+    return TestImpact.affectedClassesOf(
+        Arrays.asList(main, test), BUILD, changedSources, new SystemStreamLog());
+  }
+
+  @Test
+  public void affectOnlyTheDependentsOfARecompiledClass() {
+    // a change of the body of C recompiles only C
+    main = addClass(main, "p.C", BUILD, Collections.emptyList(), Collections.emptyList());
+
+    assertEquals(
+        Optional.of(new TreeSet<>(Arrays.asList("p.CTest"))),
+        affectedTests(Collections.emptyList()));
+  }
+
+  @Test
+  public void affectTheTransitiveDependents() {
+    assertEquals(
+        Optional.of(new TreeSet<>(Arrays.asList("p.ATest", "p.BTest"))),
+        affectedTests(Arrays.asList(source("p.A"))));
+  }
+
+  @Test
+  public void affectTheRecompiledTests() {
+    test = addClass(test, "p.BTest", BUILD, Collections.emptyList(), Arrays.asList("p.B"));
+
+    assertEquals(
+        Optional.of(new TreeSet<>(Arrays.asList("p.BTest"))),
+        affectedTests(Collections.emptyList()));
+  }
+
+  @Test
+  public void unknownIfAChangedFileIsNotASource() {
+    assertFalse(affectedTests(Arrays.asList(new File(temp.getRoot(), "pom.xml"))).isPresent());
+  }
+
+  @Test
+  public void unknownIfAnAnalysisIsMissing() {
+    assertFalse(
+        TestImpact.affectedClasses(
+                Arrays.asList(new File(temp.getRoot(), "analysis/compile")),
+                BUILD,
+                Collections.emptyList(),
+                new SystemStreamLog())
+            .isPresent());
+  }
+}
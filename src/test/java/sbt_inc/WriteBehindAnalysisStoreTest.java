@@ -0,0 +1,95 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package sbt_inc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import xsbti.compile.AnalysisContents;
+import xsbti.compile.AnalysisStore;
+import xsbti.compile.CompileAnalysis;
+import xsbti.compile.MiniSetup;
+
+public class WriteBehindAnalysisStoreTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private static AnalysisContents contents() {
+    return new AnalysisContents() {
+      @Override
+      public CompileAnalysis getAnalysis() {
+        return null;
+      }
+
+      @Override
+      public MiniSetup getMiniSetup() {
+        return null;
+      }
+    };
+  }
+
+  // records the analyses written, the first one once started is released
+  private static final class SlowStore implements AnalysisStore {
+    final List<AnalysisContents> written = new ArrayList<>();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch released = new CountDownLatch(1);
+
+    @Override
+    public Optional<AnalysisContents> get() {
+      synchronized (written) {
+        return written.isEmpty() ? Optional.empty() : Optional.of(written.get(written.size() - 1));
+      }
+    }
+
+    @Override
+    public AnalysisContents unsafeGet() {
+      return get().get();
+    }
+
+    @Override
+    public void set(AnalysisContents contents) {
+      started.countDown();
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        throw new IllegalStateException(e);
+      }
+      synchronized (written) {
+        written.add(contents);
+      }
+    }
+  }
+
+  @Test
+  public void coalesceTheAnalysesSetDuringAWrite() throws Exception {
+    File file = new File(temp.getRoot(), "compile");
+    SlowStore slow = new SlowStore();
+    AnalysisStore store = WriteBehindAnalysisStore.of(file, slow);
+    AnalysisContents a = contents();
+    AnalysisContents b = contents();
+    AnalysisContents c = contents();
+
+    store.set(a);
+    slow.started.await();
+    store.set(b);
+    store.set(c);
+    // the analysis not written yet is the current one
+    assertSame(c, store.get().get());
+
+    slow.released.countDown();
+    WriteBehindAnalysisStore.flush(file);
+    assertEquals(Arrays.asList(a, c), slow.written);
+    assertSame(c, store.get().get());
+  }
+}
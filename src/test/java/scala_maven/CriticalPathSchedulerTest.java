@@ -0,0 +1,61 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class CriticalPathSchedulerTest {
+
+  private final List<String> started = new ArrayList<>();
+
+  private CriticalPathScheduler.Task task(String name, long cost) {
+    return new CriticalPathScheduler.Task(
+        name,
+        cost,
+        early -> {
+          synchronized (started) {
+            started.add(name);
+          }
+          if (name.startsWith("fail")) {
+            throw new IllegalStateException(name);
+          }
+        });
+  }
+
+  @Test
+  public void startLongestCriticalPathFirst() throws Exception {
+    CriticalPathScheduler.Task a = task("a", 1);
+    CriticalPathScheduler.Task b = task("b", 10);
+    CriticalPathScheduler.Task c = task("c", 1);
+    CriticalPathScheduler.Task d = task("d", 100);
+    c.dependencies.add(a);
+    d.earlyDependencies.add(c);
+
+    new CriticalPathScheduler(1).run(Arrays.asList(b, d));
+
+    assertEquals(Arrays.asList("a", "c", "d", "b"), started);
+    assertEquals(102, a.criticalPath());
+  }
+
+  @Test
+  public void skipDependentsOfFailedTasks() throws Exception {
+    CriticalPathScheduler.Task failing = task("fail", 1);
+    CriticalPathScheduler.Task dependent = task("dependent", 1);
+    dependent.dependencies.add(failing);
+    try {
+      new CriticalPathScheduler(2).run(Arrays.asList(dependent));
+      fail();
+    } catch (IllegalStateException e) {
+      assertEquals("fail", e.getMessage());
+    }
+    assertEquals(Arrays.asList("fail"), started);
+  }
+}
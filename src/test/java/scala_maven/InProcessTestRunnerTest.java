@@ -0,0 +1,157 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import javax.tools.ToolProvider;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InProcessTestRunnerTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  // the reports of the test frameworks
+  private final List<String> logged = new ArrayList<>();
+
+  private final Log log =
+      new SystemStreamLog() {
+        @Override
+        public void info(CharSequence content) {
+          logged.add(content.toString());
+        }
+      };
+
+  private static File jarOf(Class<?> c) throws Exception {
+    return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI());
+  }
+
+  private static void compile(File classes, List<File> classpath, File... sources) {
+    String[] args = new String[4 + sources.length];
+    args[0] = "-d";
+    args[1] = classes.getPath();
+    args[2] = "-classpath";
+    args[3] =
+        classpath.stream()
+            .map(File::getPath)
+            .reduce((a, b) -> a + File.pathSeparator + b)
+            .orElse("");
+    for (int i = 0; i < sources.length; i++) {
+      args[4 + i] = sources[i].getPath();
+    }
+    assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, args));
+  }
+
+  private File source(String name, String content) throws Exception {
+    File file = new File(temp.getRoot(), "src/" + name);
+    file.getParentFile().mkdirs();
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  @Test
+  public void runJUnit4Tests() throws Exception {
+    List<File> jars = Arrays.asList(jarOf(Test.class), jarOf(org.hamcrest.Matcher.class));
+    File testClasses = temp.newFolder("test-classes");
+    compile(
+        testClasses,
+        jars,
+        source(
+            "p/PassingTest.java",
+            "package p; public class PassingTest { @org.junit.Test public void ok() {} }"),
+        source(
+            "p/FailingTest.java",
+            "package p; public class FailingTest {"
+                + " @org.junit.Test public void ko() { org.junit.Assert.fail(); } }"),
+        source("p/Helper.java", "package p; public class Helper {}"));
+    List<File> classpath = Arrays.asList(testClasses, jars.get(0), jars.get(1));
+
+    try (InProcessTestRunner runner = new InProcessTestRunner(log)) {
+      assertEquals(Optional.of(false), runner.run(classpath, testClasses, null, null));
+      assertTrue(logged.stream().anyMatch(report -> report.contains("Tests run: 2,  Failures: 1")));
+      assertEquals(Optional.of(true), runner.run(classpath, testClasses, "Passing*", null));
+      assertEquals(Optional.of(true), runner.run(classpath, testClasses, "p.PassingTest", null));
+      assertEquals(
+          Optional.empty(),
+          runner.run(Arrays.asList(testClasses), testClasses, "PassingTest", null));
+    }
+  }
+
+  @Test
+  public void runOnlyTheGivenTestClasses() throws Exception {
+    List<File> jars = Arrays.asList(jarOf(Test.class), jarOf(org.hamcrest.Matcher.class));
+    File testClasses = temp.newFolder("test-classes");
+    compile(
+        testClasses,
+        jars,
+        source(
+            "p/PassingTest.java",
+            "package p; public class PassingTest { @org.junit.Test public void ok() {} }"),
+        source(
+            "p/FailingTest.java",
+            "package p; public class FailingTest {"
+                + " @org.junit.Test public void ko() { org.junit.Assert.fail(); } }"));
+    List<File> classpath = Arrays.asList(testClasses, jars.get(0), jars.get(1));
+
+    try (InProcessTestRunner runner = new InProcessTestRunner(log)) {
+      assertEquals(
+          Optional.of(true),
+          runner.run(classpath, testClasses, null, Arrays.asList("p.PassingTest", "p.Helper")));
+      assertEquals(
+          Optional.of(true),
+          runner.run(classpath, testClasses, "Failing*", Arrays.asList("p.PassingTest")));
+      assertEquals(
+          Optional.of(false),
+          runner.run(classpath, testClasses, null, Arrays.asList("p.FailingTest")));
+    }
+  }
+
+  @Test
+  public void runTheSpecsByDefault() throws Exception {
+    List<File> jars = Arrays.asList(jarOf(Test.class), jarOf(org.hamcrest.Matcher.class));
+    File testClasses = temp.newFolder("test classes");
+    compile(
+        testClasses,
+        jars,
+        source(
+            "p/FailingSpec.java",
+            "package p; public class FailingSpec {"
+                + " @org.junit.Test public void ko() { org.junit.Assert.fail(); } }"));
+    List<File> classpath = Arrays.asList(testClasses, jars.get(0), jars.get(1));
+
+    try (InProcessTestRunner runner = new InProcessTestRunner(log)) {
+      assertEquals(Optional.of(false), runner.run(classpath, testClasses, null, null));
+      assertEquals(
+          Optional.of(false),
+          runner.run(classpath, testClasses, null, Arrays.asList("p.FailingSpec")));
+    }
+  }
+
+  @Test
+  public void matchTestNamesLikeSurefire() {
+    assertTrue(InProcessTestRunner.testPattern(null).matcher("p.FooTest").matches());
+    assertTrue(InProcessTestRunner.testPattern(null).matcher("TestFoo").matches());
+    assertFalse(InProcessTestRunner.testPattern(null).matcher("p.Foo").matches());
+    assertTrue(InProcessTestRunner.testPattern(null).matcher("p.FooSpec").matches());
+    assertTrue(InProcessTestRunner.testPattern(null).matcher("p.FooSuite").matches());
+    assertTrue(InProcessTestRunner.testPattern("Foo*,Bar").matcher("p.q.FooSpec").matches());
+    assertTrue(InProcessTestRunner.testPattern("Foo*,Bar").matcher("Bar").matches());
+    assertFalse(InProcessTestRunner.testPattern("p.Foo").matcher("q.p.Foo").matches());
+    assertTrue(InProcessTestRunner.testPattern("FooTest.java#ok").matcher("p.FooTest").matches());
+  }
+}
@@ -112,4 +112,20 @@ public class ScalaMojoSupportTest {
         asList("-java-output-version", "17"),
         ScalaMojoSupport.computeBytecodeVersionOptions("1.8", "17", new VersionNumber("3.1.2")));
   }
+
+  @Test
+  public void cross_artifact_id_should_replace_the_scala_version_suffix() {
+    VersionNumber from = new VersionNumber("2.13.11");
+    assertEquals(
+        "kind-projector_2.12.18",
+        ScalaMojoSupport.crossArtifactId(
+            "kind-projector_2.13.11", from, new VersionNumber("2.12.18")));
+    assertEquals(
+        "paradise_2.12",
+        ScalaMojoSupport.crossArtifactId("paradise_2.13", from, new VersionNumber("2.12.18")));
+    assertEquals(
+        "foo_3", ScalaMojoSupport.crossArtifactId("foo_2.13", from, new VersionNumber("3.3.0")));
+    assertEquals(
+        "foo", ScalaMojoSupport.crossArtifactId("foo", from, new VersionNumber("2.12.18")));
+  }
 }
@@ -0,0 +1,50 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package scala_maven;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SourceWatcherTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private static void write(File file, String content) throws Exception {
+    Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void reportChangesOfNewDirectories() throws Exception {
+    File root = temp.newFolder("src");
+    File a = new File(root, "A.scala");
+    write(a, "class A");
+    try (SourceWatcher watcher = new SourceWatcher(Collections.singletonList(root))) {
+      File dir = new File(root, "p");
+      dir.mkdir();
+      File b = new File(dir, "B.scala");
+      write(b, "class B");
+      Set<File> changed = watcher.awaitChanges(500);
+      assertTrue(changed.toString(), changed.contains(dir));
+      assertTrue(changed.toString(), changed.contains(b));
+
+      // the new directory is watched too
+      write(b, "class C");
+      a.delete();
+      changed = watcher.awaitChanges(500);
+      assertEquals(2, changed.size());
+      assertTrue(changed.toString(), changed.contains(a));
+      assertTrue(changed.toString(), changed.contains(b));
+    }
+  }
+}
@@ -11,11 +11,15 @@ import org.apache.maven.toolchain.Toolchain;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.EnvironmentVariables;
+import org.junit.contrib.java.lang.system.RestoreSystemProperties;
 
 public class JavaLocatorTest {
 
   @Rule public final EnvironmentVariables environmentVariables = new EnvironmentVariables();
 
+  @Rule
+  public final RestoreSystemProperties restoreSystemProperties = new RestoreSystemProperties();
+
   @Test
   public void shouldReturnNotNullWhenJavaIsNotAvailableOnCommandLineAndJavaHomeIsPresent() {
     Toolchain toolchain = new ReturningToolChain(null);
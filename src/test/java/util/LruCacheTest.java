@@ -0,0 +1,118 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ * See UNLICENSE.
+ */
+package util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class LruCacheTest {
+
+  @Test
+  public void reuseValues() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    assertEquals("A", cache.get("a", String::toUpperCase));
+    assertEquals("A", cache.get("a", k -> "other"));
+    assertEquals(1, cache.hits());
+    assertEquals(1, cache.misses());
+  }
+
+  @Test
+  public void evictLeastRecentlyUsed() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    cache.get("a", String::toUpperCase);
+    cache.get("b", String::toUpperCase);
+    cache.get("a", String::toUpperCase);
+    cache.get("c", String::toUpperCase);
+    assertEquals(2, cache.size());
+    assertEquals("A", cache.get("a", k -> "other"));
+    assertEquals("other", cache.get("b", k -> "other"));
+
+    cache.setMaxWeight(1);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void evictBeyondMaxWeight() {
+    LruCache<String, String> cache = new LruCache<>(5, (k, v) -> v.length());
+    cache.get("a", k -> "aaa");
+    cache.get("b", k -> "bb");
+    assertEquals(2, cache.size());
+    cache.get("c", k -> "c");
+    assertEquals(2, cache.size());
+    assertEquals("other", cache.get("a", k -> "other"));
+  }
+
+  @Test
+  public void doNotCacheNull() {
+    LruCache<String, String> cache = new LruCache<>(2);
+    assertEquals(null, cache.get("a", k -> null));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void passEvictedValuesToListener() {
+    List<String> evicted = new ArrayList<>();
+    LruCache<String, String> cache = new LruCache<>(1, (k, v) -> 1, evicted::add);
+    cache.get("a", String::toUpperCase);
+    cache.get("b", String::toUpperCase);
+    assertEquals(Arrays.asList("A"), evicted);
+    cache.setMaxWeight(0);
+    assertEquals(Arrays.asList("A", "B"), evicted);
+  }
+
+  @Test
+  public void computeOutsideOfTheLock() throws Exception {
+    LruCache<String, String> cache = new LruCache<>(2);
+    CountDownLatch computingA = new CountDownLatch(1);
+    CountDownLatch releaseA = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<String> a =
+          executor.submit(
+              () ->
+                  cache.get(
+                      "a",
+                      k -> {
+                        computingA.countDown();
+                        try {
+                          releaseA.await();
+                        } catch (InterruptedException e) {
+                          throw new IllegalStateException(e);
+                        }
+                        return "A";
+                      }));
+      computingA.await();
+      // another key is computed while a is, and a is computed once
+      assertEquals("B", cache.get("b", String::toUpperCase));
+      Future<String> a2 = executor.submit(() -> cache.get("a", k -> "other"));
+      releaseA.countDown();
+      assertEquals("A", a.get(10, TimeUnit.SECONDS));
+      assertEquals("A", a2.get(10, TimeUnit.SECONDS));
+      assertEquals(2, cache.misses());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void removeValue() {
+    List<String> evicted = new ArrayList<>();
+    LruCache<String, String> cache = new LruCache<>(2, (k, v) -> 1, evicted::add);
+    cache.get("a", String::toUpperCase);
+    cache.remove("a");
+    assertEquals(0, cache.size());
+    assertEquals("other", cache.get("a", k -> "other"));
+    assertEquals(0, evicted.size());
+  }
+}